@@ -0,0 +1,131 @@
+package frc.robot.vision.java;
+
+import frc.robot.vision.java.VisionServer.Conversion;
+import frc.robot.vision.java.VisionServer.TargetData;
+
+
+/** Converts camera-relative target data into robot-relative data: unit conversion, distance calibration, then the camera mount pose.
+ * Everything is precompiled (a 3x4 matrix and a uniform lookup table) so apply() is a handful of multiplies and does not allocate.
+ * Frames follow TargetOffset: x right, y up, z forward. Yaw + turns the camera right, pitch + tilts it up, roll + is clockwise seen from behind. */
+public final class CameraTransform {
+
+	private final double[] m = new double[12];	// row-major rotation | translation, camera -> robot
+	private final double yaw, pitch;			// degrees, for data without a position
+	private Conversion units = null;
+	private double[] lut = null;
+	private double lut_min = 0.0, lut_step = 1.0;
+
+
+	public CameraTransform(double x, double y, double z, double yaw, double pitch, double roll) {	// mount position in robot units, angles in degrees
+		final double
+			cy = Math.cos(Math.toRadians(yaw)), sy = Math.sin(Math.toRadians(yaw)),
+			cp = Math.cos(Math.toRadians(pitch)), sp = Math.sin(Math.toRadians(pitch)),
+			cr = Math.cos(Math.toRadians(roll)), sr = Math.sin(Math.toRadians(roll));
+		// R = yaw(about y) * pitch(about x) * roll(about z)
+		final double[]
+			ry = { cy, 0, sy,  0, 1, 0,  -sy, 0, cy },
+			rp = { 1, 0, 0,  0, cp, sp,  0, -sp, cp },
+			rr = { cr, sr, 0,  -sr, cr, 0,  0, 0, 1 },
+			a = multiply(ry, rp),
+			r = multiply(a, rr);
+		for(int i = 0; i < 3; i++) {
+			this.m[i * 4] = r[i * 3];
+			this.m[i * 4 + 1] = r[i * 3 + 1];
+			this.m[i * 4 + 2] = r[i * 3 + 2];
+		}
+		this.m[3] = x;
+		this.m[7] = y;
+		this.m[11] = z;
+		this.yaw = yaw;
+		this.pitch = pitch;
+	}
+	private static double[] multiply(double[] a, double[] b) {	// 3x3, construction only
+		double[] c = new double[9];
+		for(int i = 0; i < 3; i++) {
+			for(int j = 0; j < 3; j++) {
+				c[i * 3 + j] = a[i * 3] * b[j] + a[i * 3 + 1] * b[3 + j] + a[i * 3 + 2] * b[6 + j];
+			}
+		}
+		return c;
+	}
+
+	public CameraTransform withUnits(Conversion c) {	// camera units -> robot units, applied to x, y, z and distance first
+		this.units = c;
+		return this;
+	}
+	public CameraTransform withDistanceCalibration(double[] measured, double[] actual, int resolution) {	// samples sorted by 'measured', in robot units
+		final int n = Math.min(measured.length, actual.length);
+		if(n < 2 || resolution < 2) {
+			this.lut = null;
+			return this;
+		}
+		final double min = measured[0], max = measured[n - 1], step = (max - min) / (resolution - 1);
+		final double[] t = new double[resolution];
+		for(int i = 0, k = 0; i < resolution; i++) {	// resample the piecewise-linear curve onto a uniform grid
+			final double v = min + step * i;
+			while(k < n - 2 && measured[k + 1] < v) {
+				k++;
+			}
+			final double span = measured[k + 1] - measured[k];
+			t[i] = actual[k] + (span > 0.0 ? (v - measured[k]) / span : 0.0) * (actual[k + 1] - actual[k]);
+		}
+		this.lut_min = min;
+		this.lut_step = step;
+		this.lut = t;
+		return this;
+	}
+
+	public double calibrate(double d) {		// clamps outside the calibrated range
+		final double[] t = this.lut;
+		if(t == null) {
+			return d;
+		}
+		final double f = (d - this.lut_min) / this.lut_step;
+		if(f <= 0.0) {
+			return t[0];
+		}
+		if(f >= t.length - 1) {
+			return t[t.length - 1];
+		}
+		final int i = (int)f;
+		return t[i] + (f - i) * (t[i + 1] - t[i]);
+	}
+
+	public TargetData apply(TargetData d) {		// in place, returns 'd'
+		final Conversion u = this.units;
+		double x = d.pos.x, y = d.pos.y, z = d.pos.z, dist = d.distance;
+		if(u != null) {
+			x = u.convert(x);
+			y = u.convert(y);
+			z = u.convert(z);
+			dist = u.convert(dist);
+		}
+		final double cal = this.calibrate(dist);
+		if(x == 0.0 && y == 0.0 && z == 0.0) {		// no position published, only the angles can be corrected
+			d.distance = cal;
+			d.lr += this.yaw;
+			d.ud += this.pitch;
+			return d;
+		}
+		if(dist > 0.0 && cal != dist) {
+			final double s = cal / dist;
+			x *= s;
+			y *= s;
+			z *= s;
+		}
+		final double[] m = this.m;
+		final double
+			rx = m[0] * x + m[1] * y + m[2] * z + m[3],
+			ry = m[4] * x + m[5] * y + m[6] * z + m[7],
+			rz = m[8] * x + m[9] * y + m[10] * z + m[11];
+		d.pos.x = rx;
+		d.pos.y = ry;
+		d.pos.z = rz;
+		d.distance = Math.sqrt(rx * rx + ry * ry + rz * rz);
+		d.lr = Math.toDegrees(Math.atan2(rx, rz));
+		d.ud = Math.toDegrees(Math.atan2(ry, Math.hypot(rx, rz)));
+		return d;
+	}
+
+
+}
@@ -0,0 +1,84 @@
+package frc.robot.vision.java;
+
+import edu.wpi.first.networktables.NetworkTableValue;
+
+import frc.robot.vision.java.VisionServer.TargetData;
+
+
+/** Rebuilds whole frames from the per-field target entries, for coprocessors that do not publish the packed "data" array.
+ * The coprocessor writes x, y, z, distance, up-down, left-right in that order, so a "left-right" update ends a frame. NT skips values that did not change,
+ * so a field repeating before "left-right" also ends the previous frame. Values come from the notifications themselves, never from re-reading entries,
+ * so one coprocessor frame produces exactly one TargetData. Nothing is emitted until every field has been seen once. Single thread (the NT listener). */
+final class FieldAssembler {
+
+	private static final int
+		X = 0, Y = 1, Z = 2, DISTANCE = 3, UD = 4, LR = 5,
+		ALL = (1 << 6) - 1;
+
+	private final TargetData stage = new TargetData();
+	private int seen = 0, ever = 0;		// fields updated in the current frame / since construction
+	private long time = 0;
+
+
+	static boolean isField(String key) {
+		return fieldOf(key) >= 0;
+	}
+
+	boolean accept(String key, NetworkTableValue value, TargetData out) {	// returns true if 'out' now holds a completed frame (camera-relative)
+		final int f = fieldOf(key);
+		if(f < 0 || value == null || !value.isDouble()) {
+			return false;
+		}
+		boolean done = false;
+		if((this.seen & (1 << f)) != 0) {	// previous frame ended without a (changed) left-right
+			done = this.complete(out);
+		}
+		final double v = value.getDouble();
+		switch(f) {
+			case X: this.stage.pos.x = v; break;
+			case Y: this.stage.pos.y = v; break;
+			case Z: this.stage.pos.z = v; break;
+			case DISTANCE: this.stage.distance = v; break;
+			case UD: this.stage.ud = v; break;
+			case LR: this.stage.lr = v; break;
+		}
+		this.seen |= 1 << f;
+		this.ever |= 1 << f;
+		this.time = value.getTime();
+		if(f == LR) {
+			done = this.complete(out);
+		}
+		return done;
+	}
+
+	private boolean complete(TargetData out) {
+		this.seen = 0;
+		if(this.ever != ALL) {
+			return false;
+		}
+		out.set(this.stage);
+		out.frame = -1;
+		out.timestamp = this.time;
+		out.latency = 0.0;
+		out.capture = VisionServer.ntToFPGA(this.time);
+		out.camera = -1;
+		out.pipeline = -1;
+		out.confidence = 1.0;
+		out.generation = 0;
+		return true;
+	}
+
+	private static int fieldOf(String key) {
+		switch(key) {
+			case "x": return X;
+			case "y": return Y;
+			case "z": return Z;
+			case "distance": return DISTANCE;
+			case "up-down": return UD;
+			case "left-right": return LR;
+			default: return -1;
+		}
+	}
+
+
+}
@@ -0,0 +1,92 @@
+package frc.robot.vision.java;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/** Log-linear (HDR-style) histogram of microsecond values: exact below 16 us, then 8 sub-buckets per power of two (~12% resolution).
+ * Storage is preallocated and recording is lock-free and allocation-free, so it can be left on during matches. */
+public final class LatencyHistogram {
+
+	private static final int
+		SUB_BITS = 3,
+		SUB = 1 << SUB_BITS,
+		BUCKETS = 41 * SUB;		// covers up to 2^40 us
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong
+		count = new AtomicLong(),
+		sum = new AtomicLong(),
+		max = new AtomicLong(Long.MIN_VALUE),
+		min = new AtomicLong(Long.MAX_VALUE);
+
+
+	private static int index(long us) {
+		if(us <= 0) {
+			return 0;
+		}
+		final int b = Math.max(0, 63 - Long.numberOfLeadingZeros(us) - SUB_BITS);
+		return Math.min(BUCKETS - 1, b * SUB + (int)(us >>> b));
+	}
+	private static long lower(int idx) {
+		final int b = idx < 2 * SUB ? 0 : idx / SUB - 1;
+		return (long)(idx - b * SUB) << b;
+	}
+	private static long upper(int idx) {	// exclusive
+		final int b = idx < 2 * SUB ? 0 : idx / SUB - 1;
+		return lower(idx) + (1L << b);
+	}
+
+	public void record(long us) {
+		this.counts.incrementAndGet(index(us));
+		this.count.incrementAndGet();
+		this.sum.addAndGet(us);
+		this.max.accumulateAndGet(us, Math::max);
+		this.min.accumulateAndGet(us, Math::min);
+	}
+	public void recordSeconds(double s) {
+		this.record((long)(s * 1e6));
+	}
+	public void reset() {
+		for(int i = 0; i < BUCKETS; i++) {
+			this.counts.set(i, 0);
+		}
+		this.count.set(0);
+		this.sum.set(0);
+		this.max.set(Long.MIN_VALUE);
+		this.min.set(Long.MAX_VALUE);
+	}
+
+	public long getCount() {
+		return this.count.get();
+	}
+	public double getMean() {	// us, NaN when empty
+		final long c = this.count.get();
+		return c > 0 ? (double)this.sum.get() / c : Double.NaN;
+	}
+	public long getMax() {		// us, 0 when empty
+		final long m = this.max.get();
+		return m == Long.MIN_VALUE ? 0 : m;
+	}
+	public long getMin() {
+		final long m = this.min.get();
+		return m == Long.MAX_VALUE ? 0 : m;
+	}
+	public double getPercentile(double p) {	// us (bucket midpoint), p in [0, 100] -- NaN when empty
+		final long c = this.count.get();
+		if(c <= 0) {
+			return Double.NaN;
+		}
+		final long target = Math.max(1, (long)Math.ceil(c * p / 100.0));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += this.counts.get(i);
+			if(seen >= target) {
+				return (lower(i) + upper(i) - 1) * 0.5;
+			}
+		}
+		return this.getMax();
+	}
+
+
+}
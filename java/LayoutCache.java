@@ -0,0 +1,129 @@
+package frc.robot.vision.java;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/** The last known camera/pipeline layout -- names in index order -- persisted to a small local file so VisionServer can resolve
+ * name-based switches to a provisional index before the coprocessor connects. Plain tab-separated text, one camera or pipeline per line:
+ * <pre>
+ * camera	&lt;name&gt;
+ * pipeline	&lt;name&gt;
+ * </pre>
+ * Only used for resolution -- cached names never become VsCamera/VsPipeline objects. Immutable once loaded.
+ * Files are replaced atomically, so a reboot mid-write leaves the previous layout intact. */
+public final class LayoutCache {
+
+	public static final String DEFAULT_FILE = "/home/lvuser/vision-layout.cache";
+	private static final String HEADER = "# VisionServer layout cache";
+
+	private final List<String> cameras, pipelines;
+
+
+	private LayoutCache(List<String> cameras, List<String> pipelines) {
+		this.cameras = Collections.unmodifiableList(cameras);
+		this.pipelines = Collections.unmodifiableList(pipelines);
+	}
+	public static LayoutCache empty() {
+		return new LayoutCache(new ArrayList<>(), new ArrayList<>());
+	}
+
+	public List<String> getCameras() {
+		return this.cameras;
+	}
+	public List<String> getPipelines() {
+		return this.pipelines;
+	}
+	public int findCameraIdx(String name) {		// cached index, -1 if unknown
+		return this.cameras.indexOf(name);
+	}
+	public int findPipelineIdx(String name) {
+		return this.pipelines.indexOf(name);
+	}
+	public boolean isEmpty() {
+		return this.cameras.isEmpty() && this.pipelines.isEmpty();
+	}
+
+	public static LayoutCache load(Path file) {		// returns an empty layout if the file is missing or unreadable
+		final List<String> lines;
+		try {
+			lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		} catch(NoSuchFileException e) {
+			return empty();
+		} catch(IOException e) {
+			System.out.println("VisionServer: failed to read layout cache " + file + ": " + e.getMessage());
+			return empty();
+		}
+		final List<String> cams = new ArrayList<>(), pipes = new ArrayList<>();
+		for(String line : lines) {
+			if(line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			final String[] f = line.split("\t");
+			if(f.length >= 2 && f[0].equals("camera")) {
+				cams.add(f[1]);
+			} else if(f.length >= 2 && f[0].equals("pipeline")) {	// any trailing fields (older files) are ignored
+				pipes.add(f[1]);
+			}
+		}
+		return new LayoutCache(cams, pipes);
+	}
+	public static LayoutCache capture(List<VisionServer.VsCamera> cameras, List<VisionServer.VsPipeline> pipelines) {	// snapshot of the live layout
+		final List<String> cams = new ArrayList<>(), pipes = new ArrayList<>();
+		for(VisionServer.VsCamera c : cameras) {
+			cams.add(c.getName());
+		}
+		for(VisionServer.VsPipeline p : pipelines) {
+			pipes.add(p.getName());
+		}
+		return new LayoutCache(cams, pipes);
+	}
+	public boolean save(Path file) {	// returns false (after logging) on failure
+		try {
+			final Path dir = file.toAbsolutePath().getParent(), tmp = file.resolveSibling(file.getFileName() + ".tmp");
+			if(dir != null) {
+				Files.createDirectories(dir);
+			}
+			try(BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+				w.write(HEADER);
+				w.newLine();
+				for(String c : this.cameras) {
+					w.write("camera\t" + c);
+					w.newLine();
+				}
+				for(String p : this.pipelines) {
+					w.write("pipeline\t" + p);
+					w.newLine();
+				}
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		} catch(IOException e) {
+			System.out.println("VisionServer: failed to write layout cache " + file + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if(!(o instanceof LayoutCache)) {
+			return false;
+		}
+		final LayoutCache l = (LayoutCache)o;
+		return this.cameras.equals(l.cameras) && this.pipelines.equals(l.pipelines);
+	}
+	@Override
+	public int hashCode() {
+		return this.cameras.hashCode() * 31 + this.pipelines.hashCode();
+	}
+
+
+}
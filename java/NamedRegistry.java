@@ -0,0 +1,156 @@
+package frc.robot.vision.java;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
+
+
+/** Copy-on-write, name-indexed list used for the camera and pipeline tables.
+ * Writers (NT listener thread) build a new immutable snapshot and swap it in; readers only ever do a volatile read. */
+public final class NamedRegistry<T> {
+
+	public static final class Snapshot<T> {
+		private final Object[] items;
+		private final HashMap<String, Integer> index;
+		private final List<T> view;
+
+		@SuppressWarnings("unchecked")
+		private Snapshot(Object[] items, HashMap<String, Integer> index) {
+			this.items = items;
+			this.index = index;
+			this.view = Collections.unmodifiableList((List<T>)Arrays.asList(items));
+		}
+
+		public int size() {
+			return this.items.length;
+		}
+		@SuppressWarnings("unchecked")
+		public T get(int idx) {		// returns null when out of bounds
+			return idx >= 0 && idx < this.items.length ? (T)this.items[idx] : null;
+		}
+		public int indexOf(String name) {	// returns -1 if not present
+			Integer i = this.index.get(name);
+			return i == null ? -1 : i.intValue();
+		}
+		public T get(String name) {
+			return this.get(this.indexOf(name));
+		}
+		public List<T> list() {
+			return this.view;
+		}
+	}
+
+
+	private final Function<String, T> factory;
+	private final Function<T, String> namer;
+	private final ObjIntConsumer<T> indexer;
+	private final Consumer<T> disposer;		// called for items dropped by remove/reconcile/clear, may be null
+	private volatile Snapshot<T> current = new Snapshot<>(new Object[0], new HashMap<>());
+
+
+	public NamedRegistry(Function<String, T> factory, Function<T, String> namer, ObjIntConsumer<T> indexer) {
+		this(factory, namer, indexer, null);
+	}
+	public NamedRegistry(Function<String, T> factory, Function<T, String> namer, ObjIntConsumer<T> indexer, Consumer<T> disposer) {
+		this.factory = factory;
+		this.namer = namer;
+		this.indexer = indexer;
+		this.disposer = disposer;
+	}
+
+	public Snapshot<T> snapshot() {
+		return this.current;
+	}
+	public int size() {
+		return this.current.size();
+	}
+	public T get(int idx) {
+		return this.current.get(idx);
+	}
+	public T get(String name) {
+		return this.current.get(name);
+	}
+	public int indexOf(String name) {
+		return this.current.indexOf(name);
+	}
+	public List<T> list() {
+		return this.current.list();
+	}
+
+	public synchronized boolean add(String name) {	// returns false if already present
+		final Snapshot<T> s = this.current;
+		if(s.index.containsKey(name)) {
+			return false;
+		}
+		Object[] items = Arrays.copyOf(s.items, s.items.length + 1);
+		@SuppressWarnings("unchecked")
+		HashMap<String, Integer> index = (HashMap<String, Integer>)s.index.clone();
+		T item = this.factory.apply(name);
+		this.indexer.accept(item, s.items.length);
+		items[s.items.length] = item;
+		index.put(name, s.items.length);
+		this.current = new Snapshot<>(items, index);
+		return true;
+	}
+	public synchronized boolean remove(String name) {	// returns false if not present
+		final Snapshot<T> s = this.current;
+		final Integer idx = s.index.get(name);
+		if(idx == null) {
+			return false;
+		}
+		Object[] items = new Object[s.items.length - 1];
+		System.arraycopy(s.items, 0, items, 0, idx);
+		System.arraycopy(s.items, idx + 1, items, idx, items.length - idx);
+		this.current = this.build(items);
+		this.dispose(s.items[idx]);
+		return true;
+	}
+	public synchronized void reconcile(Collection<String> live) {	// rebuilds in 'live' iteration order (so the order never depends on how items were added), keeping existing items and dropping any not in 'live'
+		final Snapshot<T> s = this.current;
+		final Object[] items = new Object[live.size()];
+		int n = 0;
+		for(String name : live) {
+			final Integer i = s.index.get(name);
+			items[n++] = i != null ? s.items[i] : this.factory.apply(name);
+		}
+		this.current = this.build(items);
+		for(Object o : s.items) {
+			@SuppressWarnings("unchecked")
+			T item = (T)o;
+			if(!live.contains(this.namer.apply(item))) {
+				this.dispose(o);
+			}
+		}
+	}
+	public synchronized void clear() {
+		final Snapshot<T> s = this.current;
+		this.current = new Snapshot<>(new Object[0], new HashMap<>());
+		for(Object o : s.items) {
+			this.dispose(o);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void dispose(Object item) {		// after the swap, so new readers never see a disposed item
+		if(this.disposer != null) {
+			this.disposer.accept((T)item);
+		}
+	}
+	private Snapshot<T> build(Object[] items) {
+		HashMap<String, Integer> index = new HashMap<>(items.length * 2);
+		for(int i = 0; i < items.length; i++) {
+			@SuppressWarnings("unchecked")
+			T item = (T)items[i];
+			this.indexer.accept(item, i);
+			index.put(this.namer.apply(item), i);
+		}
+		return new Snapshot<>(items, index);
+	}
+
+
+}
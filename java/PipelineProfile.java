@@ -0,0 +1,137 @@
+package frc.robot.vision.java;
+
+import java.util.ArrayList;
+
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
+
+import frc.robot.vision.java.VisionServer.VsPipeline;
+import frc.robot.vision.java.VisionServer.EntryPreset;
+import frc.robot.vision.java.VisionServer.BooleanOption;
+import frc.robot.vision.java.VisionServer.NumericOption;
+import frc.robot.vision.java.VisionServer.StringOption;
+
+
+/** A set of options compiled against one pipeline: values are unboxed and entries resolved once, and apply() only writes
+ * values that differ from what is currently on the pipeline -- so several profiles for the same pipeline can be swapped freely.
+ * Handles are rebound automatically if the pipeline's keys change. */
+public final class PipelineProfile {
+
+	private final VsPipeline pipeline;
+
+	private final String[] bool_keys, num_keys, str_keys;
+	private final boolean[] bool_vals;
+	private final double[] num_vals;
+	private final String[] str_vals;
+	private final EntryPreset[] others;		// presets that are not one of the typed options, applied every time
+
+	private final NetworkTableEntry[] bool_entries, num_entries, str_entries;
+	private boolean force = false;		// write every value on the next apply(), regardless of the current ones
+	private int generation = -1;
+
+
+	public PipelineProfile(VsPipeline p, EntryPreset... options) {
+		this.pipeline = p;
+		ArrayList<BooleanOption> b = new ArrayList<>();
+		ArrayList<NumericOption> n = new ArrayList<>();
+		ArrayList<StringOption> s = new ArrayList<>();
+		ArrayList<EntryPreset> o = new ArrayList<>();
+		for(EntryPreset e : options) {
+			if(e instanceof BooleanOption) {
+				b.add((BooleanOption)e);
+			} else if(e instanceof NumericOption) {
+				n.add((NumericOption)e);
+			} else if(e instanceof StringOption) {
+				s.add((StringOption)e);
+			} else {
+				o.add(e);
+			}
+		}
+		this.bool_keys = new String[b.size()];
+		this.bool_vals = new boolean[b.size()];
+		for(int i = 0; i < this.bool_keys.length; i++) {
+			this.bool_keys[i] = b.get(i).entry;
+			this.bool_vals[i] = b.get(i).value.booleanValue();
+		}
+		this.num_keys = new String[n.size()];
+		this.num_vals = new double[n.size()];
+		for(int i = 0; i < this.num_keys.length; i++) {
+			this.num_keys[i] = n.get(i).entry;
+			this.num_vals[i] = n.get(i).value.doubleValue();
+		}
+		this.str_keys = new String[s.size()];
+		this.str_vals = new String[s.size()];
+		for(int i = 0; i < this.str_keys.length; i++) {
+			this.str_keys[i] = s.get(i).entry;
+			this.str_vals[i] = s.get(i).value;
+		}
+		this.others = o.toArray(new EntryPreset[0]);
+
+		this.bool_entries = new NetworkTableEntry[this.bool_keys.length];
+		this.num_entries = new NetworkTableEntry[this.num_keys.length];
+		this.str_entries = new NetworkTableEntry[this.str_keys.length];
+	}
+
+	public VsPipeline getPipeline() {
+		return this.pipeline;
+	}
+	public void reset() {	// the next apply() writes every value, even those that already match
+		this.force = true;
+	}
+
+	private void bind() {
+		final PropertyIndex index = this.pipeline.getProperties();
+		final int g = index.getGeneration();
+		if(g == this.generation) {
+			return;
+		}
+		for(int i = 0; i < this.bool_keys.length; i++) {
+			this.bool_entries[i] = index.get(this.bool_keys[i]);
+		}
+		for(int i = 0; i < this.num_keys.length; i++) {
+			this.num_entries[i] = index.get(this.num_keys[i]);
+		}
+		for(int i = 0; i < this.str_keys.length; i++) {
+			this.str_entries[i] = index.get(this.str_keys[i]);
+		}
+		this.generation = g;
+	}
+
+	public int apply() {	// returns the number of values written -- 0 (and no flush) if nothing changed
+		this.bind();
+		final boolean all = this.force;
+		int written = 0;
+		for(int i = 0; i < this.bool_entries.length; i++) {	// the default is the opposite value, so a missing or mistyped entry is always written
+			final NetworkTableEntry e = this.bool_entries[i];
+			final boolean v = this.bool_vals[i];
+			if(e != null && (all || e.getBoolean(!v) != v) && e.setBoolean(v)) {
+				written++;
+			}
+		}
+		for(int i = 0; i < this.num_entries.length; i++) {
+			final NetworkTableEntry e = this.num_entries[i];
+			final double v = this.num_vals[i];
+			if(e != null && (all || e.getDouble(Double.NaN) != v) && e.setDouble(v)) {
+				written++;
+			}
+		}
+		for(int i = 0; i < this.str_entries.length; i++) {
+			final NetworkTableEntry e = this.str_entries[i];
+			final String v = this.str_vals[i];
+			if(e != null && (all || !v.equals(e.getString(null))) && e.setString(v)) {
+				written++;
+			}
+		}
+		this.force = false;
+		for(EntryPreset p : this.others) {
+			p.setValue(this.pipeline.get());
+			written++;
+		}
+		if(written > 0) {
+			NetworkTableInstance.getDefault().flush();
+		}
+		return written;
+	}
+
+
+}
@@ -0,0 +1,358 @@
+package frc.robot.vision.java;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.locks.StampedLock;
+
+import frc.robot.vision.java.VisionServer.TargetData;
+
+
+/** Estimates the robot's field pose (x, y, heading in degrees CCW+) from robot-relative observations of targets at known field positions.
+ * Solves weighted least squares over every observation within a frame window: a closed-form weighted 2D alignment gives the solution directly,
+ * and when a gyro heading prior is supplied a fixed number of Gauss-Newton steps fold it in. The covariance is the inverse of the normal matrix.
+ * Observations should already be robot-relative (see CameraTransform): +z forward, +x right. Each is weighted by confidence / sigma^2,
+ * with sigma = base + per_distance * range. All workspaces are preallocated, so a solve does not allocate and its cost is bounded by the capacity. */
+public final class PoseEstimator {
+
+	/** Static table of known field target positions, in field units -- build once at startup. */
+	public static final class FieldLayout {
+		private final String[] names;
+		private final double[] x, y, z;
+		private final HashMap<String, Integer> index = new HashMap<>();
+		private int size = 0;
+
+		public FieldLayout(int capacity) {
+			this.names = new String[capacity];
+			this.x = new double[capacity];
+			this.y = new double[capacity];
+			this.z = new double[capacity];
+		}
+
+		public FieldLayout add(String name, double x, double y, double z) {	// 'name' matches the target's NT subtable name
+			if(this.size >= this.names.length) {
+				throw new IllegalStateException("FieldLayout is full (" + this.names.length + " targets)");
+			}
+			this.names[this.size] = name;
+			this.x[this.size] = x;
+			this.y[this.size] = y;
+			this.z[this.size] = z;
+			this.index.put(name, this.size++);
+			return this;
+		}
+		public int indexOf(String name) {	// -1 if unknown
+			final Integer i = this.index.get(name);
+			return i != null ? i : -1;
+		}
+		public int size() {
+			return this.size;
+		}
+		public String getName(int i) {
+			return this.names[i];
+		}
+		public double getX(int i) {
+			return this.x[i];
+		}
+		public double getY(int i) {
+			return this.y[i];
+		}
+		public double getZ(int i) {
+			return this.z[i];
+		}
+	}
+
+	private static final int ITERATIONS = 3;
+
+	private final FieldLayout layout;
+	private final int capacity;
+	private final int[] obs_target;			// observation workspace
+	private final double[] obs_fwd, obs_left, obs_w;
+	private int count = 0;
+	private final double[] h = new double[9], inv = new double[9], g = new double[3];	// solver workspace
+
+	private volatile double sigma_base = 0.05, sigma_per_distance = 0.02, heading_sigma = 2.0;	// field units, field units / unit range, degrees
+	private volatile double window = 0.02, max_age = 0.1;	// seconds
+	private volatile boolean use_heading_prior = true;
+
+	private final int[] visible = new int[32];		// update() workspace -- registry ids
+	private final int[] registry_map = new int[32];	// registry id -> layout index, -2 until resolved
+	private final TargetData[] frames = new TargetData[32];
+
+	private final StampedLock lock = new StampedLock();	// guards the result
+	private double rx, ry, rheading, rtime, rms;
+	private final double[] rcov = new double[9];
+	private int rused = 0;
+	private long updates = 0;
+	private final LatencyHistogram solve_time = new LatencyHistogram();
+
+
+	public PoseEstimator(FieldLayout layout) { this(layout, 32); }
+	public PoseEstimator(FieldLayout layout, int capacity) {	// capacity bounds the observations per solve, and so the solve time
+		this.layout = layout;
+		this.capacity = capacity;
+		this.obs_target = new int[capacity];
+		this.obs_fwd = new double[capacity];
+		this.obs_left = new double[capacity];
+		this.obs_w = new double[capacity];
+		Arrays.fill(this.registry_map, -2);
+		for(int i = 0; i < this.frames.length; i++) {
+			this.frames[i] = new TargetData();
+		}
+	}
+
+	public void setMeasurementNoise(double base, double per_distance) {
+		this.sigma_base = base;
+		this.sigma_per_distance = per_distance;
+	}
+	public void setHeadingPrior(boolean use, double sigma) {	// gyro heading from VisionServer.getPoseHistory(), sigma in degrees
+		this.use_heading_prior = use;
+		this.heading_sigma = sigma;
+	}
+	public void setFrameWindow(double seconds) {	// observations captured within this of the newest are treated as one frame
+		this.window = seconds;
+	}
+	public void setMaxAge(double seconds) {
+		this.max_age = seconds;
+	}
+	public FieldLayout getLayout() {
+		return this.layout;
+	}
+
+	public void clear() {		// starts a new set of observations
+		this.count = 0;
+	}
+	public boolean addObservation(int target, double fwd, double left, double confidence) {	// layout index, robot-relative offset -- returns false when full or invalid
+		if(this.count >= this.capacity || target < 0 || target >= this.layout.size() || !(confidence > 0.0)) {
+			return false;
+		}
+		final double sigma = this.sigma_base + this.sigma_per_distance * Math.hypot(fwd, left);
+		final int i = this.count++;
+		this.obs_target[i] = target;
+		this.obs_fwd[i] = fwd;
+		this.obs_left[i] = left;
+		this.obs_w[i] = confidence / (sigma * sigma);
+		return true;
+	}
+	public boolean addObservation(int target, TargetData d) {	// 'd' must be robot-relative
+		return this.addObservation(target, d.pos.z, -d.pos.x, d.confidence);
+	}
+
+	/** Solves for the pose at time 't' from the current observations. 'heading' is a prior in degrees, or NaN for none.
+	 * Returns false (and keeps the previous result) if the observations do not constrain the pose. */
+	public boolean solve(double t, double heading) {
+		final long start = System.nanoTime();
+		final int n = this.count;
+		final boolean prior = !Double.isNaN(heading);
+		if(n < 1 || (n < 2 && !prior)) {
+			return false;
+		}
+		final double[] fx = this.layout.x, fy = this.layout.y;
+
+		// closed-form weighted alignment of the robot-relative points onto the field points
+		double w_sum = 0.0, pf = 0.0, pl = 0.0, qx = 0.0, qy = 0.0;
+		for(int i = 0; i < n; i++) {
+			final double w = this.obs_w[i];
+			final int k = this.obs_target[i];
+			w_sum += w;
+			pf += w * this.obs_fwd[i];
+			pl += w * this.obs_left[i];
+			qx += w * fx[k];
+			qy += w * fy[k];
+		}
+		pf /= w_sum; pl /= w_sum; qx /= w_sum; qy /= w_sum;
+		double th;
+		if(n >= 2) {
+			double sc = 0.0, ss = 0.0;
+			for(int i = 0; i < n; i++) {
+				final double w = this.obs_w[i];
+				final int k = this.obs_target[i];
+				final double
+					a = this.obs_fwd[i] - pf, b = this.obs_left[i] - pl,
+					u = fx[k] - qx, v = fy[k] - qy;
+				sc += w * (a * u + b * v);
+				ss += w * (a * v - b * u);
+			}
+			th = (sc == 0.0 && ss == 0.0) ? Math.toRadians(heading) : Math.atan2(ss, sc);
+			if(Double.isNaN(th)) {
+				return false;
+			}
+		} else {
+			th = Math.toRadians(heading);
+		}
+		double x = qx - (Math.cos(th) * pf - Math.sin(th) * pl), y = qy - (Math.sin(th) * pf + Math.cos(th) * pl);
+
+		// Gauss-Newton with the heading prior -- without one, a single pass just builds the normal matrix at the exact solution
+		final double wp = prior ? 1.0 / Math.toRadians(this.heading_sigma) / Math.toRadians(this.heading_sigma) : 0.0;
+		final double thp = prior ? Math.toRadians(heading) : 0.0;
+		double sq = 0.0;
+		for(int it = 0; it < (prior ? ITERATIONS : 1); it++) {
+			this.normal(x, y, th, wp, thp);
+			if(!this.invert()) {
+				return false;
+			}
+			if(!prior) {
+				break;
+			}
+			final double[] hi = this.inv, gr = this.g;
+			x -= hi[0] * gr[0] + hi[1] * gr[1] + hi[2] * gr[2];
+			y -= hi[3] * gr[0] + hi[4] * gr[1] + hi[5] * gr[2];
+			th -= hi[6] * gr[0] + hi[7] * gr[1] + hi[8] * gr[2];
+		}
+		if(prior) {
+			this.normal(x, y, th, wp, thp);		// covariance at the final estimate
+			if(!this.invert()) {
+				return false;
+			}
+		}
+		final double c = Math.cos(th), s = Math.sin(th);
+		for(int i = 0; i < n; i++) {
+			final int k = this.obs_target[i];
+			final double
+				ex = x + c * this.obs_fwd[i] - s * this.obs_left[i] - fx[k],
+				ey = y + s * this.obs_fwd[i] + c * this.obs_left[i] - fy[k];
+			sq += ex * ex + ey * ey;
+		}
+
+		final long stamp = this.lock.writeLock();
+		try {
+			this.rx = x;
+			this.ry = y;
+			this.rheading = Math.toDegrees(Math.IEEEremainder(th, 2.0 * Math.PI));
+			this.rtime = t;
+			this.rms = Math.sqrt(sq / n);
+			this.rused = n;
+			final double d = Math.toDegrees(1.0);
+			for(int i = 0; i < 9; i++) {	// heading row/column in degrees
+				this.rcov[i] = this.inv[i] * (i % 3 == 2 ? d : 1.0) * (i / 3 == 2 ? d : 1.0);
+			}
+			this.updates++;
+		} finally {
+			this.lock.unlockWrite(stamp);
+		}
+		this.solve_time.record((System.nanoTime() - start) / 1000);
+		return true;
+	}
+
+	/** Gathers the visible targets that are in the layout from VisionServer's TargetRegistry, and solves at their (newest) capture time.
+	 * The heading prior comes from VisionServer's PoseHistory when enabled and recorded. */
+	public boolean update(double now) {
+		final TargetRegistry reg = VisionServer.getTargetRegistry();
+		final int found = reg.getVisible(this.visible, now, this.max_age);
+		double newest = Double.NEGATIVE_INFINITY;
+		int m = 0;
+		for(int i = 0; i < found && m < this.frames.length; i++) {
+			final int id = this.visible[i];
+			if(id >= this.registry_map.length) {
+				continue;
+			}
+			if(this.registry_map[id] == -2) {
+				this.registry_map[id] = this.layout.indexOf(reg.nameOf(id));
+			}
+			if(this.registry_map[id] >= 0 && reg.read(id, this.frames[m])) {
+				this.frames[m].camera = this.registry_map[id];	// reused as the layout index
+				newest = Math.max(newest, this.frames[m].capture);
+				m++;
+			}
+		}
+		this.clear();
+		for(int i = 0; i < m; i++) {
+			if(newest - this.frames[i].capture <= this.window) {
+				this.addObservation(this.frames[i].camera, this.frames[i]);
+			}
+		}
+		final double heading = this.use_heading_prior ? VisionServer.getPoseHistory().headingAt(newest) : Double.NaN;
+		return this.count > 0 && this.solve(newest, heading);
+	}
+
+	public boolean getPose(double[] out) {		// out = { x, y, heading (deg), timestamp (FPGA s) }, returns false before the first solve
+		long stamp = this.lock.tryOptimisticRead();
+		long u = this.updates;
+		out[0] = this.rx; out[1] = this.ry; out[2] = this.rheading; out[3] = this.rtime;
+		if(!this.lock.validate(stamp)) {
+			stamp = this.lock.readLock();
+			try {
+				u = this.updates;
+				out[0] = this.rx; out[1] = this.ry; out[2] = this.rheading; out[3] = this.rtime;
+			} finally {
+				this.lock.unlockRead(stamp);
+			}
+		}
+		return u > 0;
+	}
+	public void getCovariance(double[] out) {	// row-major 3x3 over (x, y, heading) -- heading terms in degrees
+		long stamp = this.lock.tryOptimisticRead();
+		System.arraycopy(this.rcov, 0, out, 0, 9);
+		if(!this.lock.validate(stamp)) {
+			stamp = this.lock.readLock();
+			try {
+				System.arraycopy(this.rcov, 0, out, 0, 9);
+			} finally {
+				this.lock.unlockRead(stamp);
+			}
+		}
+	}
+	public double getResidualRMS() {	// field units, of the latest solve
+		return this.rms;
+	}
+	public int getObservationsUsed() {
+		return this.rused;
+	}
+	public long getUpdates() {
+		return this.updates;
+	}
+	public LatencyHistogram getSolveTime() {	// us
+		return this.solve_time;
+	}
+
+
+	private void normal(double x, double y, double th, double wp, double thp) {	// fills h (J^T W J) and g (J^T W r) at (x, y, th)
+		final double[] H = this.h, G = this.g, fx = this.layout.x, fy = this.layout.y;
+		Arrays.fill(H, 0.0);
+		Arrays.fill(G, 0.0);
+		final double c = Math.cos(th), s = Math.sin(th);
+		for(int i = 0; i < this.count; i++) {
+			final double w = this.obs_w[i], f = this.obs_fwd[i], l = this.obs_left[i];
+			final int k = this.obs_target[i];
+			final double
+				ex = x + c * f - s * l - fx[k],
+				ey = y + s * f + c * l - fy[k],
+				a = -s * f - c * l,		// d(ex)/d(th)
+				b = c * f - s * l;		// d(ey)/d(th)
+			H[0] += w;
+			H[4] += w;
+			H[2] += w * a;
+			H[5] += w * b;
+			H[8] += w * (a * a + b * b);
+			G[0] += w * ex;
+			G[1] += w * ey;
+			G[2] += w * (a * ex + b * ey);
+		}
+		H[8] += wp;
+		G[2] += wp * Math.IEEEremainder(th - thp, 2.0 * Math.PI);
+		H[6] = H[2];
+		H[7] = H[5];
+	}
+	private boolean invert() {		// inv = h^-1 for the symmetric 3x3 h, false if singular
+		final double[] m = this.h, o = this.inv;
+		final double
+			c00 = m[4] * m[8] - m[5] * m[7],
+			c01 = m[5] * m[6] - m[3] * m[8],
+			c02 = m[3] * m[7] - m[4] * m[6],
+			det = m[0] * c00 + m[1] * c01 + m[2] * c02;
+		if(!(Math.abs(det) > 1e-12)) {
+			return false;
+		}
+		final double r = 1.0 / det;
+		o[0] = c00 * r;
+		o[1] = (m[2] * m[7] - m[1] * m[8]) * r;
+		o[2] = (m[1] * m[5] - m[2] * m[4]) * r;
+		o[3] = c01 * r;
+		o[4] = (m[0] * m[8] - m[2] * m[6]) * r;
+		o[5] = (m[2] * m[3] - m[0] * m[5]) * r;
+		o[6] = c02 * r;
+		o[7] = (m[1] * m[6] - m[0] * m[7]) * r;
+		o[8] = (m[0] * m[4] - m[1] * m[3]) * r;
+		return true;
+	}
+
+
+}
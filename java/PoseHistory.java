@@ -0,0 +1,87 @@
+package frc.robot.vision.java;
+
+import edu.wpi.first.wpilibj.Timer;
+
+
+/** Fixed-size ring buffer of recent robot poses (FPGA seconds, field x/y, heading in degrees CCW+).
+ * All storage is preallocated, so recording every loop does not allocate. One writer thread, any number of readers. */
+public final class PoseHistory {
+
+	private final double[] time, x, y, heading;
+	private volatile long written = 0;	// total samples recorded -- published after the slot is filled
+
+
+	public PoseHistory(int capacity) {
+		this.time = new double[capacity];
+		this.x = new double[capacity];
+		this.y = new double[capacity];
+		this.heading = new double[capacity];
+	}
+
+	public int capacity() {
+		return this.time.length;
+	}
+	public int size() {
+		return (int)Math.min(this.written, this.time.length);
+	}
+	public void clear() {
+		this.written = 0;
+	}
+
+	public void record(double x, double y, double heading) {
+		this.record(Timer.getFPGATimestamp(), x, y, heading);
+	}
+	public void record(double t, double x, double y, double heading) {	// timestamps must be increasing
+		long w = this.written;
+		int i = (int)(w % this.time.length);
+		this.time[i] = t;
+		this.x[i] = x;
+		this.y[i] = y;
+		this.heading[i] = heading;
+		this.written = w + 1;
+	}
+
+	public double xAt(double t) {
+		return this.interpolate(this.x, t, false);
+	}
+	public double yAt(double t) {
+		return this.interpolate(this.y, t, false);
+	}
+	public double headingAt(double t) {
+		return this.interpolate(this.heading, t, true);
+	}
+
+	private double interpolate(double[] v, double t, boolean angular) {	// clamps to the oldest/newest sample, returns NaN when empty
+		final long w = this.written;
+		final int n = (int)Math.min(w, this.time.length), cap = this.time.length;
+		if(n == 0) {
+			return Double.NaN;
+		}
+		final int newest = (int)((w - 1) % cap), oldest = (int)((w - n) % cap);
+		if(t >= this.time[newest]) {
+			return v[newest];
+		}
+		if(t <= this.time[oldest]) {
+			return v[oldest];
+		}
+		int lo = 0, hi = n - 1;	// logical indices from oldest, binary search for the last sample at or before t
+		while(hi - lo > 1) {
+			int mid = (lo + hi) >>> 1;
+			if(this.time[(oldest + mid) % cap] <= t) {
+				lo = mid;
+			} else {
+				hi = mid;
+			}
+		}
+		final int a = (oldest + lo) % cap, b = (oldest + hi) % cap;
+		final double span = this.time[b] - this.time[a];
+		final double f = span > 0.0 ? (t - this.time[a]) / span : 0.0;
+		double d = v[b] - v[a];
+		if(angular) {
+			d = Math.IEEEremainder(d, 360.0);
+		}
+		return v[a] + d * f;
+	}
+
+
+}
@@ -0,0 +1,72 @@
+package frc.robot.vision.java;
+
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
+
+
+/** Groups property writes so they reach the coprocessor in a single NT flush instead of waiting on (or triggering) separate updates.
+ * Values that already match are skipped entirely. A batch can be reused after flush(). Not thread-safe. */
+public final class PropertyBatch {
+
+	private final NetworkTableInstance inst;
+	private int written = 0, skipped = 0, failed = 0;
+
+
+	public PropertyBatch() {
+		this(NetworkTableInstance.getDefault());
+	}
+	public PropertyBatch(NetworkTableInstance inst) {
+		this.inst = inst;
+	}
+
+	public boolean set(NetworkTableEntry e, double v) {		// returns false if the write was rejected (ex. type mismatch)
+		if(e.getDouble(Double.NaN) == v) {
+			this.skipped++;
+			return true;
+		}
+		return this.count(e.setDouble(v));
+	}
+	public boolean set(NetworkTableEntry e, boolean v) {
+		if(e.exists() && e.getBoolean(!v) == v) {
+			this.skipped++;
+			return true;
+		}
+		return this.count(e.setBoolean(v));
+	}
+	public boolean set(NetworkTableEntry e, String v) {
+		if(v.equals(e.getString(null))) {
+			this.skipped++;
+			return true;
+		}
+		return this.count(e.setString(v));
+	}
+	private boolean count(boolean ok) {
+		if(ok) {
+			this.written++;
+		} else {
+			this.failed++;
+		}
+		return ok;
+	}
+
+	public int getWritten() {
+		return this.written;
+	}
+	public int getSkipped() {
+		return this.skipped;
+	}
+	public int getFailed() {
+		return this.failed;
+	}
+
+	public int flush() {	// pushes everything written since the last flush, returns the number of values written and resets the counters
+		final int w = this.written;
+		if(w > 0) {
+			this.inst.flush();
+		}
+		this.written = this.skipped = this.failed = 0;
+		return w;
+	}
+
+
+}
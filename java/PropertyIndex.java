@@ -0,0 +1,107 @@
+package frc.robot.vision.java;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.EntryListenerFlags;
+
+
+/** Compiled key index for one table: exact and case-insensitive segment lookups resolve to cached entry handles.
+ * The index is only rebuilt after a key is added to or removed from the table, segment searches are memoized per build. */
+public final class PropertyIndex {
+
+	private static final class Index {
+		final int generation;
+		final String[] keys, lower;		// sorted by key
+		final NetworkTableEntry[] entries;
+		final HashMap<String, Integer> exact = new HashMap<>();
+		final ConcurrentHashMap<String, Integer> segments = new ConcurrentHashMap<>();	// lowercased segment -> index, -1 for no match
+
+		Index(NetworkTable t, int generation) {
+			this.generation = generation;
+			this.keys = t.getKeys().toArray(new String[0]);
+			Arrays.sort(this.keys);
+			this.lower = new String[this.keys.length];
+			this.entries = new NetworkTableEntry[this.keys.length];
+			for(int i = 0; i < this.keys.length; i++) {
+				this.lower[i] = this.keys[i].toLowerCase();
+				this.entries[i] = t.getEntry(this.keys[i]);
+				this.exact.put(this.keys[i], i);
+			}
+		}
+		int search(String segment) {
+			Integer i = this.segments.get(segment);
+			if(i == null) {
+				final String s = segment.toLowerCase();
+				int found = -1;
+				for(int k = 0; k < this.lower.length; k++) {
+					if(this.lower[k].contains(s)) {
+						found = k;
+						break;
+					}
+				}
+				this.segments.put(segment, i = found);
+			}
+			return i;
+		}
+	}
+
+
+	private final NetworkTable table;
+	private final int listener;
+	private volatile Index index = null;	// rebuilt on first use after an invalidation
+	private volatile int generation = 0;
+
+
+	public PropertyIndex(NetworkTable t) {
+		this.table = t;
+		this.listener = t.addEntryListener(
+			(table, key, entry, value, flags) -> this.invalidate(),
+			EntryListenerFlags.kNew | EntryListenerFlags.kDelete | EntryListenerFlags.kLocal
+		);
+	}
+	public void close() {
+		this.table.removeEntryListener(this.listener);
+	}
+
+	public void invalidate() {
+		this.index = null;
+		this.generation++;
+	}
+	public int getGeneration() {	// changes whenever the key set changes, so bound handles know to rebind
+		return this.generation;
+	}
+	private Index get() {
+		Index i = this.index;
+		final int g = this.generation;
+		if(i == null || i.generation != g) {	// the generation check catches a build that raced an invalidation
+			this.index = i = new Index(this.table, g);
+		}
+		return i;
+	}
+
+	public int size() {
+		return this.get().keys.length;
+	}
+	public NetworkTableEntry[] getEntries() {	// copy, sorted by key
+		return this.get().entries.clone();
+	}
+	public NetworkTableEntry get(String key) {	// exact key, returns null if not present
+		final Index i = this.get();
+		final Integer k = i.exact.get(key);
+		return k == null ? null : i.entries[k];
+	}
+	public boolean contains(String key) {
+		return this.get().exact.containsKey(key);
+	}
+	public NetworkTableEntry search(String segment) {	// first key (in sorted order) containing the segment, ignoring case -- returns null if none
+		final Index i = this.get();
+		final int k = i.search(segment);
+		return k < 0 ? null : i.entries[k];
+	}
+
+
+}
@@ -0,0 +1,47 @@
+package frc.robot.vision.java;
+
+import java.util.concurrent.CompletableFuture;
+
+
+/** Tracks one camera or pipeline switch request until the coprocessor publishes a frame from the requested source.
+ * Can be polled (isConfirmed()) or waited on (future()). A handle superseded by a newer request of the same kind is cancelled. */
+public final class SwitchHandle {
+
+	public final boolean camera;		// true for a camera switch, false for a pipeline switch
+	public final int index;
+	public final long generation;
+	public final double requested;		// FPGA seconds
+	private final CompletableFuture<SwitchHandle> future = new CompletableFuture<>();
+	private volatile double latency = Double.NaN;
+
+
+	SwitchHandle(boolean camera, int index, long generation, double requested) {
+		this.camera = camera;
+		this.index = index;
+		this.generation = generation;
+		this.requested = requested;
+	}
+
+	boolean confirm(double now) {	// returns false if the handle was already done
+		this.latency = now - this.requested;
+		return this.future.complete(this);
+	}
+	boolean supersede() {
+		return this.future.cancel(false);
+	}
+
+	public boolean isDone() {
+		return this.future.isDone();
+	}
+	public boolean isConfirmed() {
+		return this.future.isDone() && !this.future.isCancelled();
+	}
+	public double getLatency() {	// seconds from request to the first matching frame, NaN until confirmed
+		return this.latency;
+	}
+	public CompletableFuture<SwitchHandle> future() {
+		return this.future;
+	}
+
+
+}
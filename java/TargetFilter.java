@@ -0,0 +1,247 @@
+package frc.robot.vision.java;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+import frc.robot.vision.java.VisionServer.TargetData;
+
+
+/** Per-target smoothing of x, y, z, distance, up-down and left-right, driven by frame capture times rather than loop ticks.
+ * MEDIAN and EMA hold their estimate between frames; KALMAN is a constant-velocity filter per channel that extrapolates across dropouts.
+ * All state is preallocated primitives. Updated on the NT listener thread, read from any thread through predict(). */
+public final class TargetFilter {
+
+	public static enum Mode { MEDIAN, EMA, KALMAN }
+	public static final int
+		X = 0, Y = 1, Z = 2, DISTANCE = 3, UD = 4, LR = 5,
+		CHANNELS = 6;
+
+	private final Mode mode;
+	private final int window;
+	private final double alpha;
+	private final double[] q = new double[CHANNELS], r = new double[CHANNELS];	// kalman process (per s^3) and measurement noise
+	private double gate = Double.POSITIVE_INFINITY;	// outlier gate in standard deviations, infinite for none
+	private int max_rejects = 3;		// consecutive outliers that are taken as a real jump and reset the filter
+
+	private final StampedLock lock = new StampedLock();
+	private final double[]
+		est = new double[CHANNELS],
+		vel = new double[CHANNELS],
+		p00 = new double[CHANNELS], p01 = new double[CHANNELS], p11 = new double[CHANNELS],
+		dev = new double[CHANNELS],		// running mean absolute residual for MEDIAN / EMA gating
+		meas = new double[CHANNELS];
+	private final double[][] hist;
+	private final double[] sort_buff;
+	private int hist_n = 0, hist_i = 0, rejects = 0;
+	private double last_t = Double.NaN;
+	private long frame = -1;
+
+
+	private TargetFilter(Mode m, int window, double alpha, double q, double r) {
+		this.mode = m;
+		this.window = window;
+		this.alpha = alpha;
+		Arrays.fill(this.q, q);
+		Arrays.fill(this.r, r);
+		this.hist = new double[CHANNELS][Math.max(1, window)];
+		this.sort_buff = new double[Math.max(1, window)];
+	}
+	public static TargetFilter median(int window) {
+		return new TargetFilter(Mode.MEDIAN, window, 0.0, 0.0, 0.0);
+	}
+	public static TargetFilter ema(double alpha) {	// weight of each new frame, 0 < alpha <= 1
+		return new TargetFilter(Mode.EMA, 1, alpha, 0.0, 0.0);
+	}
+	public static TargetFilter kalman(double process_noise, double measurement_noise) {
+		return new TargetFilter(Mode.KALMAN, 1, 0.0, process_noise, measurement_noise);
+	}
+	public TargetFilter withNoise(int channel, double process_noise, double measurement_noise) {	// per channel, since angles and distances differ in scale
+		this.q[channel] = process_noise;
+		this.r[channel] = measurement_noise;
+		return this;
+	}
+	public TargetFilter withOutlierGate(double sigmas, int max_consecutive) {
+		this.gate = sigmas;
+		this.max_rejects = max_consecutive;
+		return this;
+	}
+
+	public Mode getMode() {
+		return this.mode;
+	}
+	public void reset() {
+		long stamp = this.lock.writeLock();
+		this.hist_n = this.hist_i = this.rejects = 0;
+		this.last_t = Double.NaN;
+		this.frame = -1;
+		this.lock.unlockWrite(stamp);
+	}
+	public boolean isInitialized() {
+		return !Double.isNaN(this.last_t);
+	}
+
+	public boolean update(TargetData d) {	// returns false if the frame was rejected as an outlier (or is out of order)
+		final double[] z = this.meas;
+		z[X] = d.pos.x; z[Y] = d.pos.y; z[Z] = d.pos.z;
+		z[DISTANCE] = d.distance; z[UD] = d.ud; z[LR] = d.lr;
+		final double t = d.capture;
+		long stamp = this.lock.writeLock();
+		try {
+			if(Double.isNaN(this.last_t)) {
+				this.init(z, t);
+				this.frame = d.frame;
+				return true;
+			}
+			final double dt = t - this.last_t;
+			if(dt < 0.0) {
+				return false;
+			}
+			if(this.mode == Mode.KALMAN) {
+				this.predictKalman(dt);
+			}
+			if(this.isOutlier(z)) {
+				if(++this.rejects > this.max_rejects) {
+					this.init(z, t);
+					return true;
+				}
+				if(this.mode == Mode.KALMAN) {
+					this.last_t = t;	// keep the prediction, skip the correction
+				} else {
+					for(int c = 0; c < CHANNELS; c++) {		// let the spread estimate widen, or a steady trend would be rejected forever
+						this.dev[c] += 0.1 * (Math.abs(z[c] - this.est[c]) - this.dev[c]);
+					}
+				}
+				return false;
+			}
+			this.rejects = 0;
+			switch(this.mode) {
+				case MEDIAN: this.updateMedian(z); break;
+				case EMA: this.updateEMA(z); break;
+				case KALMAN: this.updateKalman(z); break;
+			}
+			this.last_t = t;
+			this.frame = d.frame;
+			return true;
+		} finally {
+			this.lock.unlockWrite(stamp);
+		}
+	}
+
+	public boolean predict(double t, TargetData out) {	// fills 'out' with the estimate at FPGA time 't', returns false if uninitialized
+		long stamp = this.lock.tryOptimisticRead();
+		boolean ok = this.fill(t, out);
+		if(!this.lock.validate(stamp)) {
+			stamp = this.lock.readLock();
+			try {
+				ok = this.fill(t, out);
+			} finally {
+				this.lock.unlockRead(stamp);
+			}
+		}
+		return ok;
+	}
+	private boolean fill(double t, TargetData out) {
+		final double lt = this.last_t;
+		if(Double.isNaN(lt)) {
+			return false;
+		}
+		final double dt = this.mode == Mode.KALMAN ? Math.max(0.0, t - lt) : 0.0;
+		out.pos.x = this.est[X] + this.vel[X] * dt;
+		out.pos.y = this.est[Y] + this.vel[Y] * dt;
+		out.pos.z = this.est[Z] + this.vel[Z] * dt;
+		out.distance = this.est[DISTANCE] + this.vel[DISTANCE] * dt;
+		out.ud = this.est[UD] + this.vel[UD] * dt;
+		out.lr = this.est[LR] + this.vel[LR] * dt;
+		out.capture = Math.max(t, lt);
+		out.frame = this.frame;
+		return true;
+	}
+	public double getVelocity(int channel) {	// units per second, KALMAN only (0 otherwise)
+		return this.vel[channel];
+	}
+
+
+	private void init(double[] z, double t) {
+		for(int c = 0; c < CHANNELS; c++) {
+			this.est[c] = z[c];
+			this.vel[c] = 0.0;
+			this.p00[c] = this.r[c];
+			this.p01[c] = 0.0;
+			this.p11[c] = this.r[c] * 100.0;	// velocity starts out unknown
+			this.dev[c] = 0.0;
+			this.hist[c][0] = z[c];
+		}
+		this.hist_n = 1;
+		this.hist_i = 1 % this.hist[0].length;
+		this.rejects = 0;
+		this.last_t = t;
+	}
+	private boolean isOutlier(double[] z) {
+		if(Double.isInfinite(this.gate)) {
+			return false;
+		}
+		for(int c = 0; c < CHANNELS; c++) {
+			final double res = Math.abs(z[c] - this.est[c]);
+			final double sigma = this.mode == Mode.KALMAN ? Math.sqrt(this.p00[c] + this.r[c]) : this.dev[c] * 1.25;	// mean abs dev -> sigma
+			if(sigma > 0.0 && res > this.gate * sigma) {
+				return true;
+			}
+		}
+		return false;
+	}
+	private void updateMedian(double[] z) {
+		final int cap = this.hist[0].length;
+		this.hist_n = Math.min(this.hist_n + 1, cap);
+		for(int c = 0; c < CHANNELS; c++) {
+			this.hist[c][this.hist_i] = z[c];
+			System.arraycopy(this.hist[c], 0, this.sort_buff, 0, this.hist_n);
+			for(int i = 1; i < this.hist_n; i++) {	// insertion sort, windows are small
+				final double v = this.sort_buff[i];
+				int j = i - 1;
+				while(j >= 0 && this.sort_buff[j] > v) {
+					this.sort_buff[j + 1] = this.sort_buff[j];
+					j--;
+				}
+				this.sort_buff[j + 1] = v;
+			}
+			final double m = (this.hist_n & 1) == 1 ?
+				this.sort_buff[this.hist_n / 2] : 0.5 * (this.sort_buff[this.hist_n / 2 - 1] + this.sort_buff[this.hist_n / 2]);
+			this.dev[c] += 0.1 * (Math.abs(z[c] - m) - this.dev[c]);
+			this.est[c] = m;
+		}
+		this.hist_i = (this.hist_i + 1) % cap;
+	}
+	private void updateEMA(double[] z) {
+		for(int c = 0; c < CHANNELS; c++) {
+			final double res = z[c] - this.est[c];
+			this.dev[c] += 0.1 * (Math.abs(res) - this.dev[c]);
+			this.est[c] += this.alpha * res;
+		}
+	}
+	private void predictKalman(double dt) {
+		for(int c = 0; c < CHANNELS; c++) {
+			final double q = this.q[c];
+			this.est[c] += this.vel[c] * dt;
+			this.p00[c] += dt * (2.0 * this.p01[c] + dt * this.p11[c]) + q * dt * dt * dt / 3.0;
+			this.p01[c] += dt * this.p11[c] + q * dt * dt / 2.0;
+			this.p11[c] += q * dt;
+		}
+	}
+	private void updateKalman(double[] z) {
+		for(int c = 0; c < CHANNELS; c++) {
+			final double
+				s = this.p00[c] + this.r[c],
+				k0 = this.p00[c] / s,
+				k1 = this.p01[c] / s,
+				y = z[c] - this.est[c],
+				p01 = this.p01[c];
+			this.est[c] += k0 * y;
+			this.vel[c] += k1 * y;
+			this.p11[c] -= k1 * p01;
+			this.p01[c] -= k0 * p01;
+			this.p00[c] -= k0 * this.p00[c];
+		}
+	}
+
+
+}
@@ -0,0 +1,151 @@
+package frc.robot.vision.java;
+
+import java.util.List;
+
+import edu.wpi.first.networktables.EntryListenerFlags;
+import edu.wpi.first.networktables.EntryNotification;
+
+import frc.robot.vision.java.VisionServer.TargetData;
+import frc.robot.vision.java.VisionServer.VsCamera;
+
+
+/** Merges the per-camera target results ("Cameras/<name>/Target", packed like TargetData) from every camera into one estimate.
+ * Each camera's frame is made robot-relative with its CameraTransform, observations within the alignment window of the newest one
+ * are averaged weighted by confidence / (1 + (distance / reference)^2), and the result is published to a TargetSlot.
+ * Camera Index is left alone, so switching only affects the driver stream. */
+public final class TargetFusion {
+
+	private final TargetData[] frames;		// NT listener thread only
+	private final boolean[] valid;
+	private final int[] listeners;
+	private final VsCamera[] sources;
+	private final TargetSlot fused = new TargetSlot();
+	private final TargetData out = new TargetData();
+	private volatile double window = 0.05, reference = 3.0;	// seconds, distance units
+	private volatile int used = 0;
+
+
+	TargetFusion(int capacity) {
+		this.frames = new TargetData[capacity];
+		this.valid = new boolean[capacity];
+		this.listeners = new int[capacity];
+		this.sources = new VsCamera[capacity];
+		for(int i = 0; i < capacity; i++) {
+			this.frames[i] = new TargetData();
+		}
+	}
+
+	public void setAlignmentWindow(double seconds) {
+		this.window = seconds;
+	}
+	public void setReferenceDistance(double d) {	// distance at which an observation's weight is halved
+		this.reference = d;
+	}
+	public int getCamerasUsed() {	// cameras that contributed to the latest estimate
+		return this.used;
+	}
+	public boolean read(TargetData out) {
+		return this.fused.read(out);
+	}
+	public TargetSlot getSlot() {
+		return this.fused;
+	}
+
+	synchronized void attach(List<VsCamera> cameras) {		// (re)binds listeners to the current camera list
+		this.detach();
+		for(int i = 0; i < cameras.size() && i < this.sources.length; i++) {
+			final int slot = i;
+			final VsCamera c = cameras.get(i);
+			this.sources[i] = c;
+			this.listeners[i] = c.get().getEntry("Target").addListener(
+				(e) -> this.onFrame(slot, e),
+				EntryListenerFlags.kImmediate | EntryListenerFlags.kNew | EntryListenerFlags.kUpdate | EntryListenerFlags.kLocal
+			);
+		}
+	}
+	synchronized void detach() {
+		for(int i = 0; i < this.sources.length; i++) {
+			if(this.sources[i] != null) {
+				this.sources[i].get().getEntry("Target").removeListener(this.listeners[i]);
+				this.sources[i] = null;
+			}
+			this.valid[i] = false;
+		}
+		this.fused.clear();
+	}
+
+	private void onFrame(int slot, EntryNotification e) {		// NT listener thread
+		if(e.value == null || !e.value.isDoubleArray()) {
+			return;
+		}
+		final TargetData f = this.frames[slot];
+		final VsCamera c = this.sources[slot];
+		if(c == null || !f.unpack(e.value.getDoubleArray(), e.value.getTime())) {
+			return;
+		}
+		f.camera = c.getIdx();
+		final CameraTransform t = c.getTransform();
+		if(t != null) {
+			t.apply(f);
+		}
+		this.valid[slot] = true;
+		this.fuse();
+	}
+	private void fuse() {
+		double newest = Double.NEGATIVE_INFINITY;
+		for(int i = 0; i < this.frames.length; i++) {
+			if(this.valid[i] && this.frames[i].capture > newest) {
+				newest = this.frames[i].capture;
+			}
+		}
+		final double win = this.window, ref = this.reference;
+		double w_sum = 0.0, x = 0.0, y = 0.0, z = 0.0, d = 0.0, ud = 0.0, lr = 0.0, cap = 0.0, lat = 0.0, conf = 0.0;
+		long frame = -1;
+		int n = 0;
+		for(int i = 0; i < this.frames.length; i++) {
+			final TargetData f = this.frames[i];
+			if(!this.valid[i] || newest - f.capture > win || f.confidence <= 0.0) {
+				continue;
+			}
+			final double r = f.distance / ref, w = f.confidence / (1.0 + r * r);
+			w_sum += w;
+			x += w * f.pos.x;
+			y += w * f.pos.y;
+			z += w * f.pos.z;
+			d += w * f.distance;
+			ud += w * f.ud;
+			lr += w * f.lr;
+			cap += w * f.capture;
+			lat += w * f.latency;
+			conf = Math.max(conf, f.confidence);
+			frame = Math.max(frame, f.frame);
+			n++;
+		}
+		if(n == 0 || w_sum <= 0.0) {
+			return;
+		}
+		final TargetData o = this.out;
+		o.pos.x = x / w_sum;
+		o.pos.y = y / w_sum;
+		o.pos.z = z / w_sum;
+		if(o.pos.x != 0.0 || o.pos.z != 0.0) {	// angles of the averaged position, rather than averaged angles
+			o.distance = Math.sqrt(o.pos.x * o.pos.x + o.pos.y * o.pos.y + o.pos.z * o.pos.z);
+			o.lr = Math.toDegrees(Math.atan2(o.pos.x, o.pos.z));
+			o.ud = Math.toDegrees(Math.atan2(o.pos.y, Math.hypot(o.pos.x, o.pos.z)));
+		} else {
+			o.distance = d / w_sum;
+			o.ud = ud / w_sum;
+			o.lr = lr / w_sum;
+		}
+		o.capture = cap / w_sum;
+		o.latency = lat / w_sum;
+		o.confidence = conf;
+		o.frame = frame;
+		o.camera = -1;
+		o.pipeline = -1;
+		this.used = n;
+		this.fused.publish(o);
+	}
+
+
+}
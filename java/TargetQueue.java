@@ -0,0 +1,143 @@
+package frc.robot.vision.java;
+
+import java.util.function.Consumer;
+
+import frc.robot.vision.java.VisionServer.TargetData;
+
+
+/** Ordered, no-drop delivery of active target frames: every frame VisionServer ingests is copied into a primitive ring,
+ * and the consumer drains everything that arrived since the last call into a reusable Batch, typically once per robot loop.
+ * Single consumer -- offers from the NT listener (and replay) are serialized, drains are lock-free. Allocation-free after construction. */
+public final class TargetQueue implements Consumer<TargetData> {
+
+	private static final int
+		FRAME = 0, TIMESTAMP = 1, CAPTURE = 2, LATENCY = 3,
+		X = 4, Y = 5, Z = 6, DISTANCE = 7, UD = 8, LR = 9,
+		CAMERA = 10, PIPELINE = 11, CONFIDENCE = 12, GENERATION = 13,
+		STRIDE = 14;
+
+	/** Column-oriented frames, oldest first. Reused across drains -- copy out anything that must outlive the next drain. */
+	public static final class Batch {
+		public final long[] frame, timestamp, generation;		// sequence number, NT receive time (us), switch generation
+		public final double[] capture, latency, x, y, z, distance, ud, lr, confidence;	// FPGA seconds, ms, target fields
+		public final int[] camera, pipeline;
+		private int count = 0;
+
+		public Batch(int capacity) {
+			this.frame = new long[capacity];
+			this.timestamp = new long[capacity];
+			this.generation = new long[capacity];
+			this.capture = new double[capacity];
+			this.latency = new double[capacity];
+			this.x = new double[capacity];
+			this.y = new double[capacity];
+			this.z = new double[capacity];
+			this.distance = new double[capacity];
+			this.ud = new double[capacity];
+			this.lr = new double[capacity];
+			this.confidence = new double[capacity];
+			this.camera = new int[capacity];
+			this.pipeline = new int[capacity];
+		}
+
+		public int size() {
+			return this.count;
+		}
+		public int capacity() {
+			return this.frame.length;
+		}
+		public TargetData get(int i, TargetData out) {
+			if(out.pos == null) {
+				out.pos = new VisionServer.TargetOffset();
+			}
+			out.frame = this.frame[i];
+			out.timestamp = this.timestamp[i];
+			out.capture = this.capture[i];
+			out.latency = this.latency[i];
+			out.pos.x = this.x[i];
+			out.pos.y = this.y[i];
+			out.pos.z = this.z[i];
+			out.distance = this.distance[i];
+			out.ud = this.ud[i];
+			out.lr = this.lr[i];
+			out.camera = this.camera[i];
+			out.pipeline = this.pipeline[i];
+			out.confidence = this.confidence[i];
+			out.generation = this.generation[i];
+			return out;
+		}
+	}
+
+	private final double[] ring;
+	private final int capacity;
+	private volatile long head = 0, tail = 0;	// written by the producer / consumer respectively
+	private volatile long overflows = 0;
+
+
+	TargetQueue(int capacity) {
+		this.capacity = capacity;
+		this.ring = new double[capacity * STRIDE];
+	}
+
+	@Override
+	public synchronized void accept(TargetData d) {		// producer -- drops (and counts) the frame if the consumer has fallen a full ring behind
+		final long h = this.head;
+		if(h - this.tail >= this.capacity) {
+			this.overflows++;
+			return;
+		}
+		final int b = (int)(h % this.capacity) * STRIDE;
+		final double[] r = this.ring;
+		r[b + FRAME] = d.frame;
+		r[b + TIMESTAMP] = d.timestamp;
+		r[b + CAPTURE] = d.capture;
+		r[b + LATENCY] = d.latency;
+		r[b + X] = d.pos.x;
+		r[b + Y] = d.pos.y;
+		r[b + Z] = d.pos.z;
+		r[b + DISTANCE] = d.distance;
+		r[b + UD] = d.ud;
+		r[b + LR] = d.lr;
+		r[b + CAMERA] = d.camera;
+		r[b + PIPELINE] = d.pipeline;
+		r[b + CONFIDENCE] = d.confidence;
+		r[b + GENERATION] = d.generation;		// exact in a double far beyond any realistic switch count
+		this.head = h + 1;		// publishes the slot
+	}
+
+	public int drain(Batch out) {	// consumer -- moves up to out.capacity() frames, oldest first, and returns how many
+		final long t = this.tail, n = Math.min(this.head - t, out.capacity());
+		final double[] r = this.ring;
+		for(int i = 0; i < n; i++) {
+			final int b = (int)((t + i) % this.capacity) * STRIDE;
+			out.frame[i] = (long)r[b + FRAME];
+			out.timestamp[i] = (long)r[b + TIMESTAMP];
+			out.capture[i] = r[b + CAPTURE];
+			out.latency[i] = r[b + LATENCY];
+			out.x[i] = r[b + X];
+			out.y[i] = r[b + Y];
+			out.z[i] = r[b + Z];
+			out.distance[i] = r[b + DISTANCE];
+			out.ud[i] = r[b + UD];
+			out.lr[i] = r[b + LR];
+			out.camera[i] = (int)r[b + CAMERA];
+			out.pipeline[i] = (int)r[b + PIPELINE];
+			out.confidence[i] = r[b + CONFIDENCE];
+			out.generation[i] = (long)r[b + GENERATION];
+		}
+		this.tail = t + n;		// releases the slots
+		out.count = (int)n;
+		return (int)n;
+	}
+	public int pending() {
+		return (int)(this.head - this.tail);
+	}
+	public long getOverflows() {	// frames lost because the consumer fell behind -- size the ring so this stays 0
+		return this.overflows;
+	}
+	public int capacity() {
+		return this.capacity;
+	}
+
+
+}
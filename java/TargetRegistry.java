@@ -0,0 +1,152 @@
+package frc.robot.vision.java;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableValue;
+import edu.wpi.first.networktables.EntryNotification;
+import edu.wpi.first.networktables.EntryListenerFlags;
+
+import frc.robot.vision.java.VisionServer.TargetData;
+
+
+/** Tracks every target under the "Targets" table in preallocated per-target slots.
+ * Targets get a stable integer id the first time they are seen (or interned), after which all access is by index. */
+public final class TargetRegistry {
+
+	private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+	private final String[] names;
+	private final StampedLock[] locks;
+	private final TargetData[] state;
+	private final double[] last_seen;	// FPGA seconds
+	private final FieldAssembler[] fields;	// NT listener thread only -- for targets without a packed "data" entry
+	private final boolean[] packed;			// whether the target has published "data", after which field updates are ignored
+	private final TargetData scratch = new TargetData();
+	private volatile int count = 0;
+	private final int listener;
+	private final NetworkTable table;
+
+
+	public TargetRegistry(NetworkTable targets, int capacity) {
+		this.table = targets;
+		this.names = new String[capacity];
+		this.locks = new StampedLock[capacity];
+		this.state = new TargetData[capacity];
+		this.last_seen = new double[capacity];
+		this.fields = new FieldAssembler[capacity];
+		this.packed = new boolean[capacity];
+		for(int i = 0; i < capacity; i++) {
+			this.locks[i] = new StampedLock();
+			this.state[i] = new TargetData();
+			this.fields[i] = new FieldAssembler();
+		}
+		this.listener = targets.getInstance().addEntryListener(targets.getPath() + '/', this::onUpdate,
+			EntryListenerFlags.kImmediate | EntryListenerFlags.kNew | EntryListenerFlags.kUpdate | EntryListenerFlags.kLocal);
+	}
+	public void close() {
+		this.table.getInstance().removeEntryListener(this.listener);
+	}
+
+	public int capacity() {
+		return this.names.length;
+	}
+	public int size() {
+		return this.count;
+	}
+	public int idOf(String name) {	// returns -1 if the target has not been seen or interned
+		Integer id = this.ids.get(name);
+		return id == null ? -1 : id.intValue();
+	}
+	public String nameOf(int id) {
+		return id >= 0 && id < this.count ? this.names[id] : null;
+	}
+	public synchronized int intern(String name) {		// returns -1 if the registry is full
+		Integer id = this.ids.get(name);
+		if(id != null) {
+			return id.intValue();
+		}
+		int c = this.count;
+		if(c >= this.names.length) {
+			return -1;
+		}
+		this.names[c] = name;
+		this.ids.put(name, c);
+		this.count = c + 1;
+		return c;
+	}
+
+	public boolean read(int id, TargetData out) {	// returns false for an unknown id or a target that has never been updated
+		if(id < 0 || id >= this.count) {
+			return false;
+		}
+		final StampedLock l = this.locks[id];
+		long stamp = l.tryOptimisticRead();
+		double seen = this.last_seen[id];
+		out.set(this.state[id]);
+		if(!l.validate(stamp)) {
+			stamp = l.readLock();
+			try {
+				seen = this.last_seen[id];
+				out.set(this.state[id]);
+			} finally {
+				l.unlockRead(stamp);
+			}
+		}
+		return seen > 0.0;
+	}
+	public double getLastSeen(int id) {		// FPGA seconds, 0 if never seen
+		return id >= 0 && id < this.count ? this.last_seen[id] : 0.0;
+	}
+	public boolean isVisible(int id, double now, double max_age) {
+		final double seen = this.getLastSeen(id);
+		return seen > 0.0 && now - seen <= max_age;
+	}
+	public int getVisible(int[] out, double now, double max_age) {	// fills 'out' with the ids of targets updated within 'max_age' seconds, returns the count
+		int n = 0;
+		for(int i = 0, c = this.count; i < c && n < out.length; i++) {
+			if(this.isVisible(i, now, max_age)) {
+				out[n++] = i;
+			}
+		}
+		return n;
+	}
+
+
+	private void onUpdate(EntryNotification e) {		// NT listener thread
+		final String key = e.name;
+		final int base = this.table.getPath().length() + 1, sep = key.indexOf('/', base);
+		if(sep < 0 || key.indexOf('/', sep + 1) >= 0) {
+			return;
+		}
+		final String name = key.substring(base, sep), field = key.substring(sep + 1);
+		int id = this.idOf(name);
+		if(id < 0 && (id = this.intern(name)) < 0) {
+			return;
+		}
+		final NetworkTableValue v = e.value;
+		final TargetData f = this.scratch;
+		if(v == null) {
+			return;
+		}
+		if(field.equals("data")) {
+			if(!v.isDoubleArray() || !f.unpack(v.getDoubleArray(), v.getTime())) {
+				return;
+			}
+			this.packed[id] = true;
+		} else if(this.packed[id] || !this.fields[id].accept(field, v, f)) {	// whole frames only, so a slot never mixes frames
+			return;
+		}
+		VisionServer.Get().transform(f);	// robot-relative on both paths
+		final StampedLock l = this.locks[id];
+		final long stamp = l.writeLock();
+		try {
+			this.state[id].set(f);
+			this.last_seen[id] = f.capture;
+		} finally {
+			l.unlockWrite(stamp);
+		}
+	}
+
+
+}
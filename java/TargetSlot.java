@@ -0,0 +1,61 @@
+package frc.robot.vision.java;
+
+import java.util.concurrent.locks.StampedLock;
+
+import frc.robot.vision.java.VisionServer.TargetData;
+
+
+/** Latest-value holder for target frames: one writer (the NT listener thread), any number of readers.
+ * Readers use optimistic stamps, so they never block the writer and the writer never waits on readers. */
+public final class TargetSlot {
+
+	private final StampedLock lock = new StampedLock();
+	private final TargetData value = new TargetData();
+	private boolean valid = false;
+	private long updates = 0;
+
+
+	public void publish(TargetData data) {
+		long stamp = this.lock.writeLock();
+		try {
+			this.value.set(data);
+			this.valid = true;
+			this.updates++;
+		} finally {
+			this.lock.unlockWrite(stamp);
+		}
+	}
+	public void clear() {
+		long stamp = this.lock.writeLock();
+		this.valid = false;
+		this.lock.unlockWrite(stamp);
+	}
+
+	public boolean read(TargetData out) {	// fills 'out' and returns true if a frame has been published since the last clear()
+		long stamp = this.lock.tryOptimisticRead();
+		boolean v = this.valid;
+		out.set(this.value);
+		if(!this.lock.validate(stamp)) {
+			stamp = this.lock.readLock();
+			try {
+				v = this.valid;
+				out.set(this.value);
+			} finally {
+				this.lock.unlockRead(stamp);
+			}
+		}
+		return v;
+	}
+	public long getUpdates() {	// total number of frames published, usable as a cheap "has anything changed" check
+		long stamp = this.lock.tryOptimisticRead();
+		long u = this.updates;
+		if(!this.lock.validate(stamp)) {
+			stamp = this.lock.readLock();
+			u = this.updates;
+			this.lock.unlockRead(stamp);
+		}
+		return u;
+	}
+
+
+}
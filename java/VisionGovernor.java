@@ -0,0 +1,201 @@
+package frc.robot.vision.java;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.wpilibj.Timer;
+
+
+/** Drives "Enable Processing" and pipeline selection from robot state and declared consumer demand, so the coprocessor only does as much work as is needed.
+ * Consumers declare demand with require() (eg. "shooter needs a precise target within 0.2 s"), which expires unless renewed.
+ * With no live demand processing is turned off, the cheap pipeline is used unless some demand needs precision,
+ * and the governor backs off to the cheap pipeline when the received frame rate drops below the floor. Runs from VisionServer.periodic() when enabled. */
+public final class VisionGovernor {
+
+	public static enum Mode {
+		DISABLED, AUTONOMOUS, TELEOP, TEST
+	}
+	public static final class Decision {	// immutable -- replaced whenever the governor changes its mind
+		public final boolean processing;
+		public final String pipeline;		// null if pipelines are not managed
+		public final String reason;
+		public final double time;			// FPGA seconds
+
+		private Decision(boolean processing, String pipeline, String reason, double time) {
+			this.processing = processing;
+			this.pipeline = pipeline;
+			this.reason = reason;
+			this.time = time;
+		}
+		private boolean sameAs(boolean processing, String pipeline) {
+			return this.processing == processing && (this.pipeline == null ? pipeline == null : this.pipeline.equals(pipeline));
+		}
+		@Override
+		public String toString() {
+			return (this.processing ? "processing" : "idle") + (this.pipeline != null ? " on " + this.pipeline : "") + " (" + this.reason + ')';
+		}
+	}
+	private static final class Demand {
+		final double max_age, expires;
+		final boolean precise;
+
+		Demand(double max_age, boolean precise, double expires) {
+			this.max_age = max_age;
+			this.precise = precise;
+			this.expires = expires;
+		}
+	}
+
+	private final ConcurrentHashMap<String, Demand> demands = new ConcurrentHashMap<>();
+	private volatile Mode mode = Mode.DISABLED;
+	private volatile String cheap = null, precise = null;
+	private volatile boolean process_when_disabled = false;
+	private volatile double min_fps = 0.0, backoff_hold = 2.0, min_dwell = 0.5, settle = 1.5;	// Hz, seconds
+
+	private volatile Decision decision = new Decision(true, null, "startup", 0.0);
+	private volatile double tightest_age = Double.POSITIVE_INFINITY;
+	private double backoff_until = Double.NEGATIVE_INFINITY;	// robot thread only
+	private double processing_time = 0.0, total_time = 0.0, last_update = Double.NaN;
+	private long changes = 0;
+
+	private final NetworkTableEntry
+		processing_status, pipeline_status, reason_status, duty_status, demand_status;
+
+
+	VisionGovernor(NetworkTable table) {
+		this.processing_status = table.getEntry("Processing");
+		this.pipeline_status = table.getEntry("Pipeline");
+		this.reason_status = table.getEntry("Reason");
+		this.duty_status = table.getEntry("Processing Duty Cycle");
+		this.demand_status = table.getEntry("Tightest Max Age (ms)");
+	}
+
+	public void setMode(Mode m) {		// call from the robot's mode init methods
+		this.mode = m;
+	}
+	public Mode getMode() {
+		return this.mode;
+	}
+	public void setPipelines(String cheap, String precise) {	// either may be null to leave it unmanaged
+		this.cheap = cheap;
+		this.precise = precise;
+	}
+	public void setProcessWhenDisabled(boolean p) {	// keep processing while disabled, eg. for pre-match alignment checks
+		this.process_when_disabled = p;
+	}
+	public void setMinimumFPS(double fps) {		// 0 disables backoff
+		this.min_fps = fps;
+	}
+	public void setBackoffHold(double seconds) {	// how long the cheap pipeline is forced after the frame rate drops
+		this.backoff_hold = seconds;
+	}
+	public void setSettleTime(double seconds) {	// time after a decision before the frame rate is judged -- should cover a metrics publish window
+		this.settle = seconds;
+	}
+	public void setMinimumDwell(double seconds) {	// minimum time between decisions, to avoid thrashing the coprocessor
+		this.min_dwell = seconds;
+	}
+
+	public void require(String consumer, double max_age, boolean precise, double duration) {	// (re)declares demand for targets no older than max_age seconds, for the next duration seconds
+		this.demands.put(consumer, new Demand(max_age, precise, Timer.getFPGATimestamp() + duration));
+	}
+	public void release(String consumer) {
+		this.demands.remove(consumer);
+	}
+	public void releaseAll() {
+		this.demands.clear();
+	}
+
+	public Decision getDecision() {
+		return this.decision;
+	}
+	public long getDecisionCount() {
+		return this.changes;
+	}
+	public boolean isBackingOff() {
+		return Timer.getFPGATimestamp() < this.backoff_until;
+	}
+	public double getTightestMaxAge() {		// seconds, +inf with no live demand
+		return this.tightest_age;
+	}
+	public boolean isDemandMet() {		// p95 latency within the tightest live demand
+		return VisionServer.getMetrics().getLatency().getPercentile(95) * 1e-6 <= this.tightest_age;
+	}
+	public double getFPS() {
+		return VisionServer.getMetrics().getFPS();
+	}
+	public double getLatencyP95() {		// ms
+		return VisionServer.getMetrics().getLatency().getPercentile(95) * 1e-3;
+	}
+	public double getProcessingDutyCycle() {	// fraction of governed time spent with processing enabled -- 1 minus the saved headroom
+		return this.total_time > 0.0 ? this.processing_time / this.total_time : 1.0;
+	}
+
+	void periodic(double now) {		// robot thread
+		if(!Double.isNaN(this.last_update)) {
+			final double dt = now - this.last_update;
+			this.total_time += dt;
+			if(this.decision.processing) {
+				this.processing_time += dt;
+			}
+		}
+		this.last_update = now;
+
+		double tightest = Double.POSITIVE_INFINITY;
+		boolean any = false, needs_precision = false;
+		for(Map.Entry<String, Demand> e : this.demands.entrySet()) {
+			final Demand d = e.getValue();
+			if(now > d.expires) {
+				this.demands.remove(e.getKey(), d);
+				continue;
+			}
+			any = true;
+			needs_precision |= d.precise;
+			tightest = Math.min(tightest, d.max_age);
+		}
+		this.tightest_age = tightest;
+
+		final Decision prev = this.decision;
+		if(prev.processing && this.min_fps > 0.0 && now - prev.time > this.settle
+			&& VisionServer.isConnected() && this.getFPS() < this.min_fps)
+		{
+			this.backoff_until = now + this.backoff_hold;
+		}
+		final boolean backoff = now < this.backoff_until;
+
+		final boolean processing;
+		final String reason;
+		if(this.mode == Mode.DISABLED && !this.process_when_disabled) {
+			processing = false;
+			reason = "robot disabled";
+		} else if(!any) {
+			processing = false;
+			reason = "no demand";
+		} else {
+			processing = true;
+			reason = backoff ? "frame rate below floor" : (needs_precision ? "precision demanded" : "demand");
+		}
+		final String pipeline = processing ? ((needs_precision && !backoff && this.precise != null) ? this.precise : this.cheap) : prev.pipeline;
+
+		this.demand_status.setDouble(Double.isInfinite(tightest) ? -1.0 : tightest * 1e3);
+		this.duty_status.setDouble(this.getProcessingDutyCycle());
+		if(prev.sameAs(processing, pipeline) || now - prev.time < this.min_dwell) {
+			return;
+		}
+		if(processing != prev.processing) {
+			VisionServer.setProcessingEnabled(processing);
+		}
+		if(pipeline != null && !pipeline.equals(prev.pipeline)) {
+			VisionServer.switchPipeline(pipeline);
+		}
+		this.decision = new Decision(processing, pipeline, reason, now);
+		this.changes++;
+		this.processing_status.setBoolean(processing);
+		this.pipeline_status.setString(pipeline != null ? pipeline : "");
+		this.reason_status.setString(reason);
+	}
+
+
+}
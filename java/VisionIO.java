@@ -0,0 +1,39 @@
+package frc.robot.vision.java;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+
+/** Background threads for vision NT work and console logging, so neither runs on the command scheduler thread.
+ * Actions run one at a time in submission order; log lines are printed by a separate thread so slow console I/O never delays them. */
+public final class VisionIO {
+
+	private static final ExecutorService
+		io = Executors.newSingleThreadExecutor((r) -> daemon(r, "Vision I/O")),
+		logger = Executors.newSingleThreadExecutor((r) -> daemon(r, "Vision Log"));
+
+	private static Thread daemon(Runnable r, String name) {
+		Thread t = new Thread(r, name);
+		t.setDaemon(true);
+		return t;
+	}
+	private VisionIO() {}
+
+
+	public static CompletableFuture<Void> run(Runnable action) {
+		return CompletableFuture.runAsync(action, io);
+	}
+	public static <T> CompletableFuture<T> supply(Supplier<T> action) {
+		return CompletableFuture.supplyAsync(action, io);
+	}
+	public static void execute(Runnable action) {	// fire and forget
+		io.execute(action);
+	}
+	public static void log(String msg) {
+		logger.execute(() -> System.out.println(msg));
+	}
+
+
+}
@@ -0,0 +1,171 @@
+package frc.robot.vision.java;
+
+import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.RobotController;
+import edu.wpi.first.wpilibj.Threads;
+
+import frc.robot.vision.java.VisionServer.TargetData;
+
+
+/** Runs vision consumers on a dedicated Notifier thread at 100-500 Hz, independent of the 20 ms command scheduler.
+ * Each tick drains every new active target frame from a TargetQueue, hands each to the registered consumers in order, then publishes
+ * the newest frame -- or the filter's prediction for the tick time when a TargetFilter is set -- to a TargetSlot that scheduler code reads without blocking.
+ * Allocation-free once started. Loop-time jitter (actual minus nominal period) and execution time are kept in histograms. */
+public final class VisionLoop implements AutoCloseable {
+
+	public static interface FrameConsumer {
+		void accept(TargetData d, double now);		// vision loop thread -- 'd' is reused, copy anything that must be kept
+	}
+
+	public static final double
+		MIN_RATE = 100.0,
+		MAX_RATE = 500.0;
+
+	private final Notifier notifier;
+	private final TargetQueue queue;
+	private final TargetQueue.Batch batch;
+	private final TargetData frame = new TargetData(), output = new TargetData();
+	private final TargetSlot slot = new TargetSlot();
+	private final LatencyHistogram
+		jitter = new LatencyHistogram(),		// |actual - nominal period|
+		exec = new LatencyHistogram();			// time spent in each tick
+	private volatile FrameConsumer[] consumers = new FrameConsumer[0];
+	private volatile TargetFilter filter = null;
+	private final int priority;
+	private final double period;
+
+	private volatile boolean running = false;
+	private boolean prioritized = false;	// loop thread only
+	private long last_tick = -1;
+	private volatile long ticks = 0, frames = 0, overruns = 0;
+
+
+	public VisionLoop(double hz) { this(hz, 40); }
+	public VisionLoop(double hz, int priority) {	// rate is clamped to [MIN_RATE, MAX_RATE], priority is the RT priority of the loop thread
+		this.period = 1.0 / Math.max(MIN_RATE, Math.min(MAX_RATE, hz));
+		this.priority = priority;
+		this.queue = new TargetQueue(256);
+		this.batch = new TargetQueue.Batch(64);
+		this.notifier = new Notifier(this::tick);
+		this.notifier.setName("Vision Loop");
+	}
+
+	public synchronized void start() {
+		if(!this.running) {
+			VisionServer.Get();		// make sure the server exists before registering
+			VisionServer.addTargetListener(this.queue);
+			this.last_tick = -1;
+			this.running = true;
+			this.notifier.startPeriodic(this.period);
+		}
+	}
+	public synchronized void stop() {
+		if(this.running) {
+			this.notifier.stop();
+			this.running = false;
+			VisionServer.removeTargetListener(this.queue);
+		}
+	}
+	@Override
+	public void close() {
+		this.stop();
+		this.notifier.close();
+	}
+	public boolean isRunning() {
+		return this.running;
+	}
+
+	public synchronized void addConsumer(FrameConsumer c) {
+		final FrameConsumer[] prev = this.consumers, next = new FrameConsumer[prev.length + 1];
+		System.arraycopy(prev, 0, next, 0, prev.length);
+		next[prev.length] = c;
+		this.consumers = next;
+	}
+	public synchronized boolean removeConsumer(FrameConsumer c) {
+		final FrameConsumer[] prev = this.consumers;
+		for(int i = 0; i < prev.length; i++) {
+			if(prev[i] == c) {
+				final FrameConsumer[] next = new FrameConsumer[prev.length - 1];
+				System.arraycopy(prev, 0, next, 0, i);
+				System.arraycopy(prev, i + 1, next, i, next.length - i);
+				this.consumers = next;
+				return true;
+			}
+		}
+		return false;
+	}
+	public void setFilter(TargetFilter f) {		// null publishes raw frames -- the filter should also be attached with VisionServer.setTargetFilter()
+		this.filter = f;
+	}
+
+	public boolean read(TargetData out) {	// any thread -- the latest published output
+		return this.slot.read(out);
+	}
+	public TargetSlot getSlot() {
+		return this.slot;
+	}
+	public double getPeriod() {
+		return this.period;
+	}
+	public LatencyHistogram getJitter() {	// us
+		return this.jitter;
+	}
+	public LatencyHistogram getExecutionTime() {	// us
+		return this.exec;
+	}
+	public long getTicks() {
+		return this.ticks;
+	}
+	public long getFrames() {
+		return this.frames;
+	}
+	public long getOverruns() {		// ticks that took longer than the period
+		return this.overruns;
+	}
+	public long getQueueOverflows() {
+		return this.queue.getOverflows();
+	}
+
+	private void tick() {		// loop thread
+		final long start = RobotController.getFPGATime();
+		if(!this.prioritized) {
+			Threads.setCurrentThreadPriority(true, this.priority);
+			this.prioritized = true;
+		}
+		if(this.last_tick >= 0) {
+			this.jitter.record(Math.abs((start - this.last_tick) - (long)(this.period * 1e6)));
+		}
+		this.last_tick = start;
+		final double now = start * 1e-6;
+
+		final FrameConsumer[] cs = this.consumers;
+		int n, total = 0;
+		while((n = this.queue.drain(this.batch)) > 0) {
+			for(int i = 0; i < n; i++) {
+				this.batch.get(i, this.frame);
+				for(int c = 0; c < cs.length; c++) {
+					cs[c].accept(this.frame, now);
+				}
+			}
+			total += n;
+		}
+		final TargetFilter f = this.filter;
+		if(f != null && f.isInitialized()) {
+			if(f.predict(now, this.output)) {
+				this.slot.publish(this.output);
+			}
+		} else if(total > 0) {
+			this.slot.publish(this.frame);
+		}
+		this.frames += total;
+		this.ticks++;
+
+		final long took = RobotController.getFPGATime() - start;
+		this.exec.record(took);
+		if(took > this.period * 1e6) {
+			this.overruns++;
+		}
+	}
+
+
+}
@@ -0,0 +1,144 @@
+package frc.robot.vision.java;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+
+import frc.robot.vision.java.VisionServer.TargetData;
+
+
+/** Robot-side vision statistics: frame rate, end-to-end latency, frame intervals, dropped frames and gaps, NT read cost and switch latency.
+ * Recording is lock-free and allocation-free. Summaries are published to "Vision Server/Metrics" by VisionServer.periodic(). */
+public final class VisionMetrics {
+
+	private final LatencyHistogram
+		latency = new LatencyHistogram(),		// capture -> ingest, per publish window
+		interval = new LatencyHistogram(),		// time between consecutive frames, per publish window
+		read_cost = new LatencyHistogram();		// time spent reading a frame from NT, per publish window
+	private final AtomicLong
+		frames = new AtomicLong(),
+		dropped = new AtomicLong(),		// frames missing from the sequence numbers
+		gaps = new AtomicLong();		// intervals longer than the gap threshold
+	private volatile boolean enabled = true;
+	private volatile double gap_threshold = 0.1, publish_period = 1.0;	// seconds
+
+	private long last_seq = -1;			// NT listener thread only
+	private double last_ingest = Double.NaN;
+
+	private final NetworkTableEntry
+		fps,
+		latency_mean, latency_p50, latency_p95, latency_p99,
+		interval_p99,
+		read_cost_mean,
+		frames_total, dropped_total, gaps_total,
+		camera_switch_p50, pipeline_switch_p50;
+	private double window_start = 0.0, next_publish = 0.0;
+	private long window_frames = 0;
+
+
+	VisionMetrics(NetworkTable table) {
+		this.fps = table.getEntry("FPS");
+		this.latency_mean = table.getEntry("Latency Mean (ms)");
+		this.latency_p50 = table.getEntry("Latency P50 (ms)");
+		this.latency_p95 = table.getEntry("Latency P95 (ms)");
+		this.latency_p99 = table.getEntry("Latency P99 (ms)");
+		this.interval_p99 = table.getEntry("Interval P99 (ms)");
+		this.read_cost_mean = table.getEntry("Read Cost Mean (us)");
+		this.frames_total = table.getEntry("Frames");
+		this.dropped_total = table.getEntry("Dropped Frames");
+		this.gaps_total = table.getEntry("Gaps");
+		this.camera_switch_p50 = table.getEntry("Camera Switch P50 (ms)");
+		this.pipeline_switch_p50 = table.getEntry("Pipeline Switch P50 (ms)");
+	}
+
+	public void setEnabled(boolean e) {
+		this.enabled = e;
+	}
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+	public void setGapThreshold(double seconds) {
+		this.gap_threshold = seconds;
+	}
+	public void setPublishPeriod(double seconds) {
+		this.publish_period = seconds;
+	}
+
+	void recordFrame(TargetData d, double now) {		// NT listener thread
+		if(!this.enabled) {
+			return;
+		}
+		this.frames.incrementAndGet();
+		this.latency.recordSeconds(now - d.capture);
+		if(d.frame >= 0) {
+			if(this.last_seq >= 0 && d.frame > this.last_seq + 1) {
+				this.dropped.addAndGet(d.frame - this.last_seq - 1);
+			}
+			this.last_seq = d.frame;
+		}
+		if(!Double.isNaN(this.last_ingest)) {
+			final double dt = now - this.last_ingest;
+			this.interval.recordSeconds(dt);
+			if(dt > this.gap_threshold) {
+				this.gaps.incrementAndGet();
+			}
+		}
+		this.last_ingest = now;
+	}
+	void recordReadCost(long ns) {
+		if(this.enabled) {
+			this.read_cost.record(ns / 1000);
+		}
+	}
+
+	public long getFrames() {
+		return this.frames.get();
+	}
+	public long getDroppedFrames() {
+		return this.dropped.get();
+	}
+	public long getGaps() {
+		return this.gaps.get();
+	}
+	public LatencyHistogram getLatency() {
+		return this.latency;
+	}
+	public LatencyHistogram getInterval() {
+		return this.interval;
+	}
+	public LatencyHistogram getReadCost() {
+		return this.read_cost;
+	}
+	public double getFPS() {	// over the last publish window
+		return this.fps.getDouble(0.0);
+	}
+
+	void periodic(double now) {		// robot thread -- publishes and starts a new window once per publish period
+		if(!this.enabled || now < this.next_publish) {
+			return;
+		}
+		final long f = this.frames.get();
+		final double span = now - this.window_start;
+		this.fps.setDouble(span > 0.0 ? (f - this.window_frames) / span : 0.0);
+		this.latency_mean.setDouble(this.latency.getMean() * 1e-3);
+		this.latency_p50.setDouble(this.latency.getPercentile(50) * 1e-3);
+		this.latency_p95.setDouble(this.latency.getPercentile(95) * 1e-3);
+		this.latency_p99.setDouble(this.latency.getPercentile(99) * 1e-3);
+		this.interval_p99.setDouble(this.interval.getPercentile(99) * 1e-3);
+		this.read_cost_mean.setDouble(this.read_cost.getMean());
+		this.frames_total.setDouble(f);
+		this.dropped_total.setDouble(this.dropped.get());
+		this.gaps_total.setDouble(this.gaps.get());
+		this.camera_switch_p50.setDouble(VisionServer.getCameraSwitchLatency().getPercentile(50) * 1e-3);
+		this.pipeline_switch_p50.setDouble(VisionServer.getPipelineSwitchLatency().getPercentile(50) * 1e-3);
+		this.latency.reset();
+		this.interval.reset();
+		this.read_cost.reset();
+		this.window_frames = f;
+		this.window_start = now;
+		this.next_publish = now + this.publish_period;
+	}
+
+
+}
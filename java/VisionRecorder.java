@@ -0,0 +1,197 @@
+package frc.robot.vision.java;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import edu.wpi.first.wpilibj.RobotController;
+
+import frc.robot.vision.java.VisionServer.TargetData;
+
+
+/** Appends vision events to a compact binary log of fixed-size records through a memory-mapped file.
+ * Writes are plain memory stores into the current mapping, with no per-record allocation or syscall. A new region is mapped every CHUNK bytes --
+ * ahead of time on the vision I/O thread, so the thread that crosses the boundary only swaps buffers. Nothing is forced to disk until close().
+ * Install with VisionServer.setRecorder(), read back with VisionReplay. */
+public final class VisionRecorder implements AutoCloseable {
+
+	public static final long MAGIC = 0x56534C4F47303031L;	// "VSLOG001"
+	public static final int
+		HEADER = 16,
+		RECORD = 112,
+		CHUNK = RECORD * 32768;		// ~3.5 MB per mapping
+
+	public static final int
+		FRAME = 1,
+		CAMERA_SWITCH = 2,
+		PIPELINE_SWITCH = 3,
+		CONNECTION = 4,
+		ACTIVE_TARGET = 5;
+
+	static final int NAME_BYTES = RECORD - 16;		// longer target names are truncated
+
+	/* Header: 0 long MAGIC, 8 int RECORD, 12 int records written -- kept current, so a log that was never closed still replays exactly.
+	 * Record layout (little endian):
+	 * 0 int type, 4 int aux (switch index or connected flag), 8 long FPGA time (us), 16 long frame, 24 long generation,
+	 * 32 double capture, 40 double latency, 48..88 double x, y, z, distance, ud, lr, 96 int camera, 100 int pipeline, 104 reserved
+	 * ACTIVE_TARGET records hold the name's UTF-8 length in aux and its bytes from 16. */
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final MappedByteBuffer header;	// stays mapped for the record count
+	private MappedByteBuffer map;
+	private long base;		// file offset of the current mapping
+	private long records = 0;
+	private volatile MappedByteBuffer next = null;	// mapping at next_base, prepared on the vision I/O thread
+	private volatile long next_base = -1;	// written before 'next'
+	private boolean prefetching = false;
+	private boolean closed = false;		// guarded by 'channel', so a late prefetch never maps (and extends) a closed file
+
+
+	public VisionRecorder(String path) throws IOException {
+		this.file = new RandomAccessFile(path, "rw");
+		this.file.setLength(0);
+		this.channel = this.file.getChannel();
+		this.base = 0;
+		this.map = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, CHUNK);
+		this.map.order(ByteOrder.LITTLE_ENDIAN);
+		this.map.position(HEADER);
+		this.header = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+		this.header.order(ByteOrder.LITTLE_ENDIAN);
+		this.header.putLong(0, MAGIC);
+		this.header.putInt(8, RECORD);
+		this.header.putInt(12, 0);
+	}
+
+	public synchronized long getRecords() {
+		return this.records;
+	}
+
+	private int reserve() {		// returns the position of the next record in the current mapping, -1 if closed or out of space
+		if(this.map == null) {
+			return -1;
+		}
+		if(this.map.position() + RECORD > this.map.capacity()) {
+			final long b = this.base + this.map.position();
+			final MappedByteBuffer n = this.next;
+			if(n != null && this.next_base == b) {
+				this.map = n;
+			} else {
+				try {		// the prefetch has not finished -- map here, still without forcing the old region
+					this.map = this.mapAt(b);
+				} catch(IOException e) {
+					return -1;
+				}
+			}
+			this.base = b;
+			this.next = null;
+			this.prefetching = false;
+		} else if(!this.prefetching && this.map.position() > this.map.capacity() / 2) {
+			final long b = this.base + this.map.capacity() - (this.map.capacity() - (this.base == 0 ? HEADER : 0)) % RECORD;	// where this mapping fills up
+			this.prefetching = true;
+			VisionIO.execute(() -> this.prefetch(b));
+		}
+		final int p = this.map.position();
+		this.map.position(p + RECORD);
+		this.records++;
+		return p;
+	}
+
+	private MappedByteBuffer mapAt(long offset) throws IOException {
+		final MappedByteBuffer m = this.channel.map(FileChannel.MapMode.READ_WRITE, offset, CHUNK);
+		m.order(ByteOrder.LITTLE_ENDIAN);
+		return m;
+	}
+	private void prefetch(long offset) {	// vision I/O thread
+		synchronized(this.channel) {
+			if(this.closed) {
+				return;
+			}
+			try {
+				final MappedByteBuffer m = this.mapAt(offset);
+				this.next_base = offset;
+				this.next = m;		// no lock on 'this' here -- close() holds it while taking 'channel'
+			} catch(IOException e) {
+				// reserve() maps synchronously instead
+			}
+		}
+	}
+
+	public synchronized void recordFrame(TargetData d) {
+		final int p = this.reserve();
+		if(p < 0) { return; }
+		final MappedByteBuffer m = this.map;
+		m.putInt(p, FRAME);
+		m.putInt(p + 4, 0);
+		m.putLong(p + 8, RobotController.getFPGATime());
+		m.putLong(p + 16, d.frame);
+		m.putLong(p + 24, d.generation);
+		m.putDouble(p + 32, d.capture);
+		m.putDouble(p + 40, d.latency);
+		m.putDouble(p + 48, d.pos.x);
+		m.putDouble(p + 56, d.pos.y);
+		m.putDouble(p + 64, d.pos.z);
+		m.putDouble(p + 72, d.distance);
+		m.putDouble(p + 80, d.ud);
+		m.putDouble(p + 88, d.lr);
+		m.putInt(p + 96, d.camera);
+		m.putInt(p + 100, d.pipeline);
+		m.putLong(p + 104, 0);
+		this.header.putInt(12, (int)this.records);		// after the record is complete
+	}
+	public synchronized void recordSwitch(boolean camera, int idx, long generation) {
+		this.recordEvent(camera ? CAMERA_SWITCH : PIPELINE_SWITCH, idx, generation);
+	}
+	public synchronized void recordConnection(boolean connected) {
+		this.recordEvent(CONNECTION, connected ? 1 : 0, 0);
+	}
+	public synchronized void recordActiveTarget(String name) {
+		byte[] b = name.getBytes(StandardCharsets.UTF_8);
+		final int p = this.reserve();
+		if(p < 0) { return; }
+		final MappedByteBuffer m = this.map;
+		final int n = Math.min(b.length, NAME_BYTES);
+		m.putInt(p, ACTIVE_TARGET);
+		m.putInt(p + 4, n);
+		m.putLong(p + 8, RobotController.getFPGATime());
+		for(int i = 0; i < NAME_BYTES; i++) {
+			m.put(p + 16 + i, i < n ? b[i] : 0);
+		}
+		this.header.putInt(12, (int)this.records);
+	}
+	private void recordEvent(int type, int aux, long generation) {
+		final int p = this.reserve();
+		if(p < 0) { return; }
+		final MappedByteBuffer m = this.map;
+		m.putInt(p, type);
+		m.putInt(p + 4, aux);
+		m.putLong(p + 8, RobotController.getFPGATime());
+		m.putLong(p + 24, generation);
+		for(int i = 16; i < RECORD; i += 8) {
+			if(i != 24) {
+				m.putLong(p + i, 0);
+			}
+		}
+		this.header.putInt(12, (int)this.records);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {	// trims the file to the records written
+		final long length = this.base + this.map.position();
+		this.map.force();
+		this.header.force();
+		this.map = null;
+		this.next = null;
+		synchronized(this.channel) {
+			this.closed = true;
+			this.channel.truncate(length);
+			this.channel.close();
+			this.file.close();
+		}
+	}
+
+
+}
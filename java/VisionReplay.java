@@ -0,0 +1,148 @@
+package frc.robot.vision.java;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import edu.wpi.first.wpilibj.Timer;
+
+import frc.robot.vision.java.VisionServer.TargetData;
+
+
+/** Replays a VisionRecorder log through VisionServer's ingest path, so latest(), target listeners, metrics etc. behave as they did live.
+ * While a replay runs, the pull getters (getTargetData(), getDistance(), hasActiveTarget()...) serve the replayed frames and the recorded active target,
+ * so aim code can be regression tested offline without any NT data. Frame capture times are shifted onto the current clock.
+ * Switch and connection events go to an optional EventListener. */
+public final class VisionReplay {
+
+	public static interface EventListener { void event(int type, int aux, long generation); }
+
+	private final MappedByteBuffer map;
+	private final long records;
+	private final TargetData buff = new TargetData();
+	private volatile EventListener events = null;
+	private volatile boolean stop = false;
+	private Thread thread = null;
+
+
+	public VisionReplay(String path) throws IOException {
+		try(RandomAccessFile file = new RandomAccessFile(path, "r"); FileChannel ch = file.getChannel()) {
+			this.map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		}
+		this.map.order(ByteOrder.LITTLE_ENDIAN);
+		if(this.map.capacity() < VisionRecorder.HEADER || this.map.getLong(0) != VisionRecorder.MAGIC || this.map.getInt(8) != VisionRecorder.RECORD) {
+			throw new IOException("Not a vision log: " + path);
+		}
+		final long mapped = (this.map.capacity() - VisionRecorder.HEADER) / VisionRecorder.RECORD, written = this.map.getInt(12) & 0xFFFFFFFFL;
+		this.records = written > 0 ? Math.min(written, mapped) : mapped;	// logs from before the header count: bounded by the first empty record below
+	}
+
+	public long getRecords() {	// upper bound for logs without a header count
+		return this.records;
+	}
+	public void setEventListener(EventListener l) {
+		this.events = l;
+	}
+
+	public void run(double speed) {		// blocks until the log is exhausted or stop() -- speed <= 0 replays as fast as possible
+		if(this.records == 0) {
+			return;
+		}
+		final long t0 = this.map.getLong(VisionRecorder.HEADER + 8);
+		final double start = Timer.getFPGATimestamp();
+		this.stop = false;
+		VisionServer.Get().beginReplay();
+		try {
+			this.replay(t0, start, speed);
+		} finally {
+			VisionServer.Get().endReplay();
+		}
+	}
+	private void replay(long t0, double start, double speed) {
+		for(long r = 0; r < this.records && !this.stop; r++) {
+			final int p = (int)(VisionRecorder.HEADER + r * VisionRecorder.RECORD);
+			final int type = this.map.getInt(p);
+			if(!isRecordType(type)) {	// zero-filled space past the end of a log that was not closed
+				break;
+			}
+			final long t = this.map.getLong(p + 8);
+			if(speed > 0.0) {
+				final double wait = start + (t - t0) * 1e-6 / speed - Timer.getFPGATimestamp();
+				if(wait > 0.0) {
+					try {
+						Thread.sleep((long)(wait * 1e3), (int)((wait * 1e9) % 1e6));
+					} catch(InterruptedException e) {
+						return;
+					}
+				}
+			}
+			if(type == VisionRecorder.FRAME) {
+				this.read(p, this.buff);
+				this.buff.capture += Timer.getFPGATimestamp() - t * 1e-6;	// rebase onto the current clock, keeping the recorded age
+				VisionServer.Get().ingest(this.buff);
+			} else if(type == VisionRecorder.ACTIVE_TARGET) {
+				VisionServer.Get().replayActiveTarget(this.readName(p));
+			} else {
+				final EventListener l = this.events;
+				if(l != null) {
+					l.event(type, this.map.getInt(p + 4), this.map.getLong(p + 24));
+				}
+			}
+		}
+	}
+	public synchronized void start(double speed) {	// replays on a background thread
+		this.stop();
+		this.thread = new Thread(() -> this.run(speed), "Vision Replay");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+	public synchronized void stop() {
+		this.stop = true;
+		if(this.thread != null) {
+			this.thread.interrupt();
+			this.thread = null;
+		}
+	}
+
+	public boolean read(long record, TargetData out) {	// random access, returns false if the record is not a frame
+		if(record < 0 || record >= this.records) {
+			return false;
+		}
+		final int p = (int)(VisionRecorder.HEADER + record * VisionRecorder.RECORD);
+		if(this.map.getInt(p) != VisionRecorder.FRAME) {
+			return false;
+		}
+		this.read(p, out);
+		return true;
+	}
+	private static boolean isRecordType(int type) {
+		return type >= VisionRecorder.FRAME && type <= VisionRecorder.ACTIVE_TARGET;
+	}
+	private String readName(int p) {
+		final byte[] b = new byte[Math.min(Math.max(this.map.getInt(p + 4), 0), VisionRecorder.NAME_BYTES)];
+		for(int i = 0; i < b.length; i++) {
+			b[i] = this.map.get(p + 16 + i);
+		}
+		return new String(b, StandardCharsets.UTF_8);
+	}
+	private void read(int p, TargetData out) {
+		out.frame = this.map.getLong(p + 16);
+		out.generation = this.map.getLong(p + 24);
+		out.capture = this.map.getDouble(p + 32);
+		out.latency = this.map.getDouble(p + 40);
+		out.pos.x = this.map.getDouble(p + 48);
+		out.pos.y = this.map.getDouble(p + 56);
+		out.pos.z = this.map.getDouble(p + 64);
+		out.distance = this.map.getDouble(p + 72);
+		out.ud = this.map.getDouble(p + 80);
+		out.lr = this.map.getDouble(p + 88);
+		out.camera = this.map.getInt(p + 96);
+		out.pipeline = this.map.getInt(p + 100);
+		out.timestamp = 0;
+	}
+
+
+}
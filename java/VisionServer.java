@@ -1,10 +1,20 @@
 package frc.robot.vision.java;
 
-import java.util.ArrayList;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import edu.wpi.first.networktables.NetworkTableInstance;
 import edu.wpi.first.networktables.NetworkTableEntry;
 import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.EntryListenerFlags;
+import edu.wpi.first.networktables.NetworkTablesJNI;
+import edu.wpi.first.wpilibj.RobotController;
+import edu.wpi.first.wpilibj.Timer;
 
 
 public final class VisionServer {
@@ -12,10 +22,50 @@ public final class VisionServer {
 	public static interface Conversion { double convert(double v); }
 
 
-	private ArrayList<VsPipeline> vspipelines = new ArrayList<VsPipeline>();
-	private ArrayList<VsCamera> vscameras = new ArrayList<VsCamera>();
-
-	private boolean connected = false;
+	private final NamedRegistry<VsPipeline> vspipelines;
+	private final NamedRegistry<VsCamera> vscameras;
+
+	private volatile boolean connected = false;	// last state published to "Robot-CoProcessor Connected?" -- see periodic()
+	private volatile double
+		last_echo = Double.NEGATIVE_INFINITY,	// FPGA seconds
+		last_frame = Double.NEGATIVE_INFINITY,
+		last_capture = Double.NEGATIVE_INFINITY,
+		rtt = Double.NaN;						// ms
+	private volatile double heartbeat_period = 0.1, connection_timeout = 0.5;	// seconds
+	private volatile long heartbeat_count = 0;
+	private final long[] heartbeat_sent = new long[32];	// FPGA us, indexed by heartbeat count
+	private double heartbeat_next = 0.0;
+	private volatile TargetEntries active_entries;	// swapped by the "Active Target" listener, never mutated
+	private int active_listener = 0;
+
+	private final TargetSlot latest = new TargetSlot();
+	private final TargetData listener_buff = new TargetData();	// only touched from the NT listener thread
+	private final CopyOnWriteArrayList<Consumer<TargetData>> target_listeners = new CopyOnWriteArrayList<>();
+	private final PoseHistory poses = new PoseHistory(128);
+	private volatile TargetRegistry registry = null;
+	private volatile String replay_target = null;	// active target while a VisionReplay runs, null when live
+
+	private volatile long switch_generation = 0, confirmed_generation = 0;
+	private final AtomicReference<SwitchHandle>
+		pending_camera = new AtomicReference<>(),
+		pending_pipeline = new AtomicReference<>();
+	private final LatencyHistogram
+		camera_switch_latency = new LatencyHistogram(),
+		pipeline_switch_latency = new LatencyHistogram();
+	private final VisionMetrics metrics;
+	private volatile VisionRecorder recorder = null;
+	private final ConcurrentHashMap<String, TargetFilter> filters = new ConcurrentHashMap<>();
+	private final TargetFusion fusion = new TargetFusion(16);
+	private final VisionGovernor governor;
+	private volatile Path layout_file = Paths.get(LayoutCache.DEFAULT_FILE);
+	private volatile LayoutCache layout = LayoutCache.empty();
+	private volatile boolean layout_reconciled = false;		// registries resynced against live NT since the last connect
+	private double layout_next_save = 0.0;
+	private final AtomicReference<QueuedSwitch>
+		queued_camera = new AtomicReference<>(),		// name-based switches waiting for the live layout to resolve them
+		queued_pipeline = new AtomicReference<>();
+	private volatile boolean governor_enabled = false;
+	private volatile boolean fusion_enabled = false;
 
 	private final NetworkTable
 		root,
@@ -27,7 +77,10 @@ public final class VisionServer {
 		num_cams,
 		cam_idx,
 		num_pipes,
-		pipe_idx;
+		pipe_idx,
+		heartbeat,
+		heartbeat_echo,
+		connected_status;
 
 
 	private VisionServer() {
@@ -42,27 +95,199 @@ public final class VisionServer {
 		this.cam_idx = root.getEntry( "Camera Index" );
 		this.num_pipes = root.getEntry( "Pipelines Available" );
 		this.pipe_idx = root.getEntry( "Pipeline Index" );
+		this.heartbeat = root.getEntry( "Heartbeat" );
+		this.heartbeat_echo = root.getEntry( "Heartbeat Echo" );
+		this.connected_status = root.getEntry( "Robot-CoProcessor Connected?" );
+		this.metrics = new VisionMetrics(root.getSubTable( "Metrics" ));
+		this.governor = new VisionGovernor(root.getSubTable( "Governor" ));
+
+		this.vscameras = new NamedRegistry<>(
+			(n) -> new VsCamera(this.cameras.getSubTable(n)), VsCamera::getName, (c, i) -> { c.idx = i; } );
+		this.vspipelines = new NamedRegistry<>(
+			(n) -> new VsPipeline(this.pipelines.getSubTable(n)), VsPipeline::getName, (p, i) -> { p.idx = i; }, VsPipeline::close );
+
+		this.connected_status.setBoolean(false);
+		this.heartbeat_echo.addListener(
+			(e) -> {
+				if(e.value == null || !e.value.isDouble()) { return; }
+				final long c = (long)e.value.getDouble(), sent = this.heartbeat_count;
+				if(c <= sent && c > sent - this.heartbeat_sent.length) {	// echoes of heartbeats older than the buffer are ignored
+					final long now = RobotController.getFPGATime();
+					this.rtt = (now - this.heartbeat_sent[(int)(c % this.heartbeat_sent.length)]) * 1e-3;
+					this.last_echo = now * 1e-6;
+				}
+			}, EntryListenerFlags.kNew | EntryListenerFlags.kUpdate | EntryListenerFlags.kLocal
+		);
 
-		this.root.getEntry("Robot-CoProcessor Connected?").setBoolean(false);
+		this.active_entries = new TargetEntries(this.targets, "none");
+		this.listenTarget(this.active_entries);
+		this.root.addEntryListener( "Active Target",
+			(table, key, entry, value, flags) -> {
+				String name = "none";
+				if((flags & EntryListenerFlags.kDelete) == 0 && value != null && value.isString()) {
+					name = value.getString();
+				}
+				if(!name.equals(this.active_entries.name)) {
+					TargetEntries next = new TargetEntries(this.targets, name);
+					this.active_entries.table.removeEntryListener(this.active_listener);
+					this.active_entries = next;
+					this.latest.clear();
+					this.listenTarget(next);
+					final VisionRecorder r = this.recorder;
+					if(r != null) {
+						r.recordActiveTarget(name);
+					}
+				}
+			}, EntryListenerFlags.kImmediate | EntryListenerFlags.kNew | EntryListenerFlags.kUpdate | EntryListenerFlags.kDelete | EntryListenerFlags.kLocal
+		);
 
 		this.cameras.addSubTableListener(
 			(parent, name, table) -> {
-				updateCameras();
-				this.connected = true;
-				this.root.getEntry("Robot-CoProcessor Connected?").setBoolean(true);
-			}, false
+				if(this.vscameras.add(name)) {
+					this.onLayout(true);
+				}
+			}, true
 		);
 		this.pipelines.addSubTableListener(
 			(parent, name, table) -> {
-				updatePipelines();
-				this.connected = true;
-			}, false
+				if(this.vspipelines.add(name)) {
+					this.onLayout(false);
+				}
+			}, true
 		);
+		this.num_cams.addListener((e) -> this.onLayout(true), EntryListenerFlags.kNew | EntryListenerFlags.kUpdate);
+		this.num_pipes.addListener((e) -> this.onLayout(false), EntryListenerFlags.kNew | EntryListenerFlags.kUpdate);
+
+		VisionIO.execute(this::loadLayout);		// off the static initializer -- queued switches use the cached indices until NT is live
 
 		System.out.println("VisionServer Initialized.");
 
 	}
-	private static VisionServer vsi = new VisionServer();	// "VisionServer Instance"
+	private static final class QueuedSwitch {
+		final String name;
+		final int guess;	// cached index already switched to, -1 if none
+
+		QueuedSwitch(String name, int guess) {
+			this.name = name;
+			this.guess = guess;
+		}
+	}
+	private void loadLayout() {		// vision I/O thread
+		this.layout = LayoutCache.load(this.layout_file);
+		for(boolean camera : new boolean[]{ true, false }) {	// switches queued before the cache was read get their provisional index now
+			final QueuedSwitch q = (camera ? this.queued_camera : this.queued_pipeline).get();
+			if(q != null && q.guess < 0) {
+				queueSwitch(camera, q.name);
+			}
+		}
+	}
+	private void saveLayout() {		// vision I/O thread -- only writes when the live layout differs from the cached one
+		final LayoutCache l = LayoutCache.capture(this.vscameras.list(), this.vspipelines.list());
+		if(!l.isEmpty() && !l.equals(this.layout) && l.save(this.layout_file)) {
+			this.layout = l;
+		}
+	}
+	private void listenTarget(TargetEntries t) {
+		this.active_listener = t.table.addEntryListener(
+			(table, key, entry, value, flags) -> {
+				if(this.replay_target != null) {	// a replay owns the active target
+					return;
+				}
+				final long start = System.nanoTime();
+				if(key.equals("data")) {	// unpack the notified value rather than re-reading the entry, so queued updates are each delivered once, in order
+					if(value == null || !value.isDoubleArray() || !this.listener_buff.unpack(value.getDoubleArray(), value.getTime())) {
+						return;
+					}
+				} else if(!t.data.exists()) {	// without a packed entry, ingest once per frame rebuilt from the field updates
+					if(!t.fields.accept(key, value, this.listener_buff)) {
+						return;
+					}
+				} else {
+					return;
+				}
+				this.metrics.recordReadCost(System.nanoTime() - start);
+				ingest(this.listener_buff);
+			}, EntryListenerFlags.kImmediate | EntryListenerFlags.kNew | EntryListenerFlags.kUpdate | EntryListenerFlags.kLocal
+		);
+	}
+	TargetData transform(TargetData d) {	// applies the source camera's transform (if any) in place
+		final VsCamera source = this.vscameras.get(d.camera >= 0 ? d.camera : (int)this.cam_idx.getDouble(-1.0));
+		final CameraTransform t = source == null ? null : source.transform;
+		return t == null ? d : t.apply(d);
+	}
+	void ingest(TargetData d) {		// single entry point for new frames -- called from the NT listener thread
+		final VisionRecorder r = this.recorder;
+		if(r != null) {
+			r.recordFrame(d);	// raw, so replays go through the same transforms
+		}
+		this.transform(d);
+		this.last_capture = d.capture;
+		this.last_frame = d.capture + d.latency * 1e-3;
+		final long g = this.switch_generation;	// read before the pending switches -- see requestSwitch()
+		final SwitchHandle c = this.pending_camera.get(), p = this.pending_pipeline.get();
+		if(c != null && (d.camera >= 0 ? d.camera == c.index : d.capture > c.requested)) {	// older coprocessors don't tag frames, so any frame captured after the request counts
+			if(c.confirm(this.last_frame)) {
+				this.camera_switch_latency.recordSeconds(c.getLatency());
+			}
+			this.pending_camera.compareAndSet(c, null);
+		}
+		if(p != null && (d.pipeline >= 0 ? d.pipeline == p.index : d.capture > p.requested)) {
+			if(p.confirm(this.last_frame)) {
+				this.pipeline_switch_latency.recordSeconds(p.getLatency());
+			}
+			this.pending_pipeline.compareAndSet(p, null);
+		}
+		if(this.pending_camera.get() == null && this.pending_pipeline.get() == null) {
+			this.confirmed_generation = g;
+		}
+		d.generation = this.confirmed_generation;
+		this.metrics.recordFrame(d, Timer.getFPGATimestamp());
+		final TargetFilter f = this.filters.get(this.activeName());
+		if(f != null) {
+			f.update(d);
+		}
+		this.latest.publish(d);
+		for(Consumer<TargetData> l : this.target_listeners) {
+			l.accept(d);
+		}
+	}
+	private void onLayout(boolean camera) {		// NT listener thread -- a subtable appeared or the advertised count changed
+		final NamedRegistry<?> r = camera ? this.vscameras : this.vspipelines;
+		final NetworkTable t = camera ? this.cameras : this.pipelines;
+		if(r.size() == (int)(camera ? this.num_cams : this.num_pipes).getDouble(0.0)) {
+			r.reconcile(t.getSubTables());	// complete -- re-derive the order from the live layout rather than notification order
+		}
+		if(camera) {
+			this.refreshFusion();
+		}
+		resolveQueued(camera);	// so queued switches apply even without periodic()
+	}
+	private void refreshFusion() {	// rebinds fusion to the camera list if enabled -- checked under the fusion lock, so a concurrent disable always wins
+		synchronized(this.fusion) {
+			if(this.fusion_enabled) {
+				this.fusion.attach(this.vscameras.list());
+			}
+		}
+	}
+	private String activeName() {
+		final String r = this.replay_target;
+		return r != null ? r : this.active_entries.name;
+	}
+	void beginReplay() {	// replay thread -- until endReplay(), the getters serve replayed frames only
+		this.replay_target = this.active_entries.name;		// logs may predate ACTIVE_TARGET records
+		this.latest.clear();
+	}
+	void replayActiveTarget(String name) {
+		if(!name.equals(this.replay_target)) {
+			this.replay_target = name;
+			this.latest.clear();
+		}
+	}
+	void endReplay() {
+		this.replay_target = null;
+		this.latest.clear();
+	}
+	private static final VisionServer vsi = new VisionServer();	// "VisionServer Instance"
 	public static VisionServer Get() { return vsi; }
 
 
@@ -88,69 +313,44 @@ public final class VisionServer {
 	public static boolean arePipelinesUpdated() {
 		return vsi.vspipelines.size() == (int)vsi.num_pipes.getDouble(0.0);
 	}
-	public static void updateCameras() {
-		vsi.vscameras.clear();
-		int i  = 0;
-		for(String subtable : vsi.cameras.getSubTables()) {
-			vsi.vscameras.add(new VsCamera(vsi.cameras.getSubTable(subtable)));
-			vsi.vscameras.get(i).idx = i;
-			i++;
-		}
-		System.out.println("Updated Cameras");
+	public static void updateCameras() {		// full resync against NT -- the subtable listener keeps the registry current incrementally
+		vsi.vscameras.reconcile(vsi.cameras.getSubTables());
+		vsi.refreshFusion();
+		VisionIO.log("Updated Cameras");
 	}
 	public static void updatePipelines() {
-		vsi.vspipelines.clear();
-		int i = 0;
-		for(String subtable : vsi.pipelines.getSubTables()) {
-			vsi.vspipelines.add(new VsPipeline(vsi.pipelines.getSubTable(subtable)));
-			vsi.vspipelines.get(i).idx = i;
-			i++;
-		}
-		System.out.println("Updated Pipelines");
+		vsi.vspipelines.reconcile(vsi.pipelines.getSubTables());
+		VisionIO.log("Updated Pipelines");
 	}
-	public static ArrayList<VsCamera> getCameras() {
-		return vsi.vscameras; 
+	public static List<VsCamera> getCameras() {		// immutable snapshot
+		return vsi.vscameras.list(); 
 	}
-	public static ArrayList<VsPipeline> getPipelines() {
-		return vsi.vspipelines; 
+	public static List<VsPipeline> getPipelines() {	// immutable snapshot
+		return vsi.vspipelines.list(); 
+	}
+	public static NamedRegistry<VsCamera> getCameraRegistry() {
+		return vsi.vscameras;
+	}
+	public static NamedRegistry<VsPipeline> getPipelineRegistry() {
+		return vsi.vspipelines;
 	}
 	public static VsCamera getCamera(int idx) {
-		return idx < vsi.vscameras.size() ? idx > 0 ? vsi.vscameras.get(idx) : null : null; 
+		return vsi.vscameras.get(idx);	// returns null when out of bounds
 	}
 	public static VsCamera getCamera(String name) {
-		for(int i = 0; i < vsi.vscameras.size(); i++) {
-			if(vsi.vscameras.get(i).name.equals(name)) {
-				return vsi.vscameras.get(i);
-			}
-		}
-		return null;
+		return vsi.vscameras.get(name);
 	}
-	public static int findCameraIdx(String name) {
-		for(int i = 0; i < vsi.vscameras.size(); i++) {
-			if(vsi.vscameras.get(i).name.equals(name)) {
-				return i;
-			}
-		}
-		return -1;
+	public static int findCameraIdx(String name) {	// returns -1 on failure
+		return vsi.vscameras.indexOf(name);
 	}
 	public static VsPipeline getPipeline(int idx) {
-		return idx < vsi.vspipelines.size() ? idx >= 0 ? vsi.vspipelines.get(idx) : null : null; 
+		return vsi.vspipelines.get(idx);	// returns null when out of bounds
 	}
 	public static VsPipeline getPipeline(String name) {
-		for(int i = 0; i < vsi.vspipelines.size(); i++) {
-			if(vsi.vspipelines.get(i).name.equals(name)) {
-				return vsi.vspipelines.get(i);
-			}
-		}
-		return null;
+		return vsi.vspipelines.get(name);
 	}
 	public static int findPipelineIdx(String name) {	// returns -1 on failure
-		for(int i = 0; i < vsi.vspipelines.size(); i++) {
-			if(vsi.vspipelines.get(i).name.equals(name)) {
-				return i;
-			}
-		}
-		return -1;
+		return vsi.vspipelines.indexOf(name);
 	}
 	public static VsCamera getCurrentCamera() {
 		return getCamera(vsi.root.getEntry("Camera Name").getString("none")); 
@@ -160,12 +360,25 @@ public final class VisionServer {
 	}
 
 	public static boolean applyCameraPreset(CameraPreset p) {
-		boolean ret = vsi.vscameras.size() > 0;
-		for(VsCamera camera : vsi.vscameras) {
-			ret &= camera.applyPreset(p);
+		boolean[] results = applyCameraPresetBatched(p);
+		boolean ret = results.length > 0;
+		for(boolean r : results) {
+			ret &= r;
 		}
 		return ret;
 	}
+	public static boolean[] applyCameraPresetBatched(CameraPreset p) {	// writes only changed values and pushes them in one flush -- results are indexed by camera idx
+		return applyCameraPresetBatched(p, new PropertyBatch());
+	}
+	public static boolean[] applyCameraPresetBatched(CameraPreset p, PropertyBatch batch) {
+		List<VsCamera> cams = vsi.vscameras.list();
+		boolean[] results = new boolean[cams.size()];
+		for(int i = 0; i < results.length; i++) {
+			results[i] = cams.get(i).applyPreset(p, batch);
+		}
+		batch.flush();
+		return results;
+	}
 
 	public static boolean getIsShowingStatistics() {
 		return vsi.root.getEntry("Show Statistics").getBoolean(false);
@@ -196,40 +409,379 @@ public final class VisionServer {
 		return false;
 	}
 
-	public static boolean isConnected() {
-		return vsi.connected;
+	public static void periodic() {		// call once per robot loop (robotPeriodic) -- sends heartbeats and updates the connection state
+		final double now = Timer.getFPGATimestamp();
+		if(now >= vsi.heartbeat_next) {
+			final long c = vsi.heartbeat_count + 1;
+			vsi.heartbeat_sent[(int)(c % vsi.heartbeat_sent.length)] = RobotController.getFPGATime();
+			vsi.heartbeat_count = c;
+			vsi.heartbeat.setDouble(c);
+			NetworkTableInstance.getDefault().flush();
+			vsi.heartbeat_next = now + vsi.heartbeat_period;
+		}
+		final boolean c = isConnected(now);
+		if(c != vsi.connected) {
+			vsi.connected = c;
+			vsi.connected_status.setBoolean(c);
+			final VisionRecorder r = vsi.recorder;
+			if(r != null) {
+				r.recordConnection(c);
+			}
+			if(!c) {
+				vsi.layout_reconciled = false;	// the coprocessor may come back with a different layout
+			}
+		}
+		if(c) {
+			if(!vsi.layout_reconciled) {	// full resync once per connection, in case a subtable notification was missed
+				updateCameras();
+				updatePipelines();
+				vsi.layout_reconciled = true;
+				vsi.layout_next_save = now + 1.0;	// give the subtables a moment to arrive
+			}
+			resolveQueued(true);
+			resolveQueued(false);
+			if(now >= vsi.layout_next_save) {
+				VisionIO.execute(vsi::saveLayout);
+				vsi.layout_next_save = now + 5.0;
+			}
+		}
+		vsi.metrics.periodic(now);
+		if(vsi.governor_enabled) {
+			vsi.governor.periodic(now);
+		}
+	}
+	public static LayoutCache getLayoutCache() {	// the layout as last loaded or saved -- only used to resolve names before NT is live
+		return vsi.layout;
+	}
+	public static void setLayoutCacheFile(Path file) {	// reloads from the new file (on the vision I/O thread)
+		vsi.layout_file = file;
+		VisionIO.execute(vsi::loadLayout);
+	}
+	public static String getQueuedCamera() {	// null if no name-based camera switch is waiting
+		final QueuedSwitch q = vsi.queued_camera.get();
+		return q != null ? q.name : null;
+	}
+	public static String getQueuedPipeline() {
+		final QueuedSwitch q = vsi.queued_pipeline.get();
+		return q != null ? q.name : null;
+	}
+	private static int resolveName(boolean camera, String name) {	// index if switchable now, -1 if it should be queued, -2 if definitely unknown
+		final int i = (camera ? vsi.vscameras : vsi.vspipelines).indexOf(name);	// live names only -- the registries are fed by the subtable listeners
+		final int available = camera ? numCameras() : numPipelines();
+		if(i >= 0 && i < available) {
+			return i;
+		}
+		if(i < 0 && available > 0 && (camera ? areCamerasUpdated() : arePipelinesUpdated())) {		// the live layout is complete and lacks the name
+			return -2;
+		}
+		return -1;
+	}
+	private static SwitchHandle queueSwitch(boolean camera, String name) {	// waits for the live layout -- meanwhile switches to the cached index, if any (null otherwise)
+		final LayoutCache l = vsi.layout;
+		final int guess = camera ? l.findCameraIdx(name) : l.findPipelineIdx(name);
+		final SwitchHandle h = guess >= 0 ? requestSwitch(camera, guess) : null;	// already set when the coprocessor connects, so it starts on the right source
+		(camera ? vsi.queued_camera : vsi.queued_pipeline).set(new QueuedSwitch(name, h != null ? guess : -1));
+		resolveQueued(camera);		// the live layout may have completed in the meantime
+		return h;
+	}
+	private static void resolveQueued(boolean camera) {		// robot thread (periodic()) or NT listener thread (subtable added)
+		final VisionServer v = vsi;
+		if(v == null) {		// notification during construction -- periodic() catches up
+			return;
+		}
+		final AtomicReference<QueuedSwitch> q = camera ? v.queued_camera : v.queued_pipeline;
+		final QueuedSwitch s = q.get();
+		if(s == null) {
+			return;
+		}
+		final int i = resolveName(camera, s.name);
+		if(i == -2) {
+			if(q.compareAndSet(s, null)) {
+				VisionIO.log("VisionServer: dropped queued " + (camera ? "camera" : "pipeline") + " switch to unknown '" + s.name + "'");
+			}
+		} else if(i >= 0 && q.compareAndSet(s, null) && i != s.guess) {
+			requestSwitch(camera, i);	// first switch, or a correction when the cached index no longer matches the live layout
+		}
+	}
+	public static VisionGovernor getGovernor() {
+		return vsi.governor;
+	}
+	public static void setGovernorEnabled(boolean e) {	// while enabled the governor owns Enable Processing and (if configured) the pipeline
+		vsi.governor_enabled = e;
+	}
+	public static boolean isGovernorEnabled() {
+		return vsi.governor_enabled;
+	}
+	public static VisionRecorder setRecorder(VisionRecorder r) {	// null stops recording, returns the previous recorder (which the caller closes)
+		final VisionRecorder prev = vsi.recorder;
+		if(r != null) {
+			r.recordActiveTarget(vsi.active_entries.name);		// so a replay starts on the right target
+		}
+		vsi.recorder = r;
+		return prev;
+	}
+	public static VisionMetrics getMetrics() {
+		return vsi.metrics;
+	}
+	public static boolean isConnected() {	// true if the coprocessor echoed a heartbeat or sent a frame within the connection timeout
+		return isConnected(Timer.getFPGATimestamp());
+	}
+	private static boolean isConnected(double now) {	// frames count as well, for coprocessors that do not echo heartbeats
+		return now - vsi.last_echo <= vsi.connection_timeout || now - vsi.last_frame <= vsi.connection_timeout;
+	}
+	public static double getRoundTripTime() {	// ms, from the last echoed heartbeat -- NaN until the first echo
+		return vsi.rtt;
+	}
+	public static double getStaleness() {	// seconds since the capture of the latest frame, +inf if none has arrived
+		return Timer.getFPGATimestamp() - vsi.last_capture;
+	}
+	public static boolean isFresh(double max_age) {
+		return getStaleness() <= max_age;
+	}
+	public static double getTimeSinceEcho() {
+		return Timer.getFPGATimestamp() - vsi.last_echo;
+	}
+	public static void setConnectionTimeout(double seconds) {
+		vsi.connection_timeout = seconds;
+	}
+	public static void setHeartbeatPeriod(double seconds) {
+		vsi.heartbeat_period = seconds;
 	}
 	public static boolean hasActiveTarget() {
-		return !vsi.active_target.getString("none").equals("none");	// returns "none" on failure
+		return !vsi.activeName().equals("none");	// returns "none" on failure
 	}
 	public static NetworkTable getActiveTarget() {
-		return vsi.targets.getSubTable(vsi.active_target.getString("none"));	// returns "none" on failure
+		return vsi.active_entries.table;	// returns "none" on failure
 	}
 	public static String getActiveTargetName() {
-		return vsi.active_target.getString("none");	// returns "none" on failure
+		return vsi.activeName();	// returns "none" on failure
+	}
+	private static final ThreadLocal<TargetData> scratch = ThreadLocal.withInitial(TargetData::new);	// for the single-value getters
+	private static TargetData current(TargetData out) {
+		return read(vsi.active_entries, out);
 	}
-	public static double getDistance() {
-		return getActiveTarget().getEntry("distance").getDouble(0.0);
+	private static final TargetData NO_TARGET = new TargetData();	// never modified
+	private static TargetData read(TargetEntries t, TargetData out) {	// robot-relative, like everything ingest() delivers
+		if(vsi.replay_target != null) {		// replayed frames only exist in the slot
+			return vsi.latest.read(out) ? out : out.set(NO_TARGET);
+		}
+		if(t == vsi.active_entries && t.data.exists() && vsi.latest.read(out)) {	// packed frames are already unpacked by the listener -- reading "data" again would allocate
+			return out;
+		}
+		t.read(out);
+		return t.present() ? vsi.transform(out) : out;		// no target reads as zeros, not as the camera's offset
+	}
+	public static double getDistance() {	// robot-relative (see VsCamera.setTransform), as are all of the target getters
+		return current(scratch.get()).distance;
 	}
 	public static double getThetaUD() {
-		return getActiveTarget().getEntry("up-down").getDouble(0.0);
+		return current(scratch.get()).ud;
 	}
 	public static double getThetaLR() {
-		return getActiveTarget().getEntry("left-right").getDouble(0.0);
+		return current(scratch.get()).lr;
 	}
 	public static TargetOffset getTargetPos() {
-		return new TargetOffset(getActiveTarget());
+		return getTargetPos(new TargetOffset());
+	}
+	public static TargetOffset getTargetPos(TargetOffset out) {	// fills and returns 'out' -- no allocation
+		final TargetOffset p = current(scratch.get()).pos;
+		out.x = p.x;
+		out.y = p.y;
+		out.z = p.z;
+		return out;
 	}
 	public static TargetData getTargetData() {
-		return new TargetData(getActiveTarget());
+		return getTargetData(new TargetData());
+	}
+	public static TargetData getTargetData(TargetData out) {	// fills and returns 'out' -- all fields come from one frame when the coprocessor publishes "data"
+		return current(out);
+	}
+	public static boolean latest(TargetData out) {	// non-blocking, returns false if no frame has arrived for the current active target
+		return vsi.latest.read(out);
+	}
+	public static TargetData latest() {		// returns null if no frame has arrived for the current active target
+		TargetData d = new TargetData();
+		return vsi.latest.read(d) ? d : null;
+	}
+	public static TargetRegistry getTargetRegistry() {	// created on first use, then tracks every subtable of "Targets"
+		TargetRegistry r = vsi.registry;
+		if(r == null) {
+			synchronized(vsi) {
+				if((r = vsi.registry) == null) {
+					vsi.registry = r = new TargetRegistry(vsi.targets, 32);
+				}
+			}
+		}
+		return r;
+	}
+	public static void setTargetFilter(String target, TargetFilter f) {	// null removes the filter
+		if(f == null) {
+			vsi.filters.remove(target);
+		} else {
+			vsi.filters.put(target, f);
+		}
+	}
+	public static TargetFilter getTargetFilter(String target) {
+		return vsi.filters.get(target);
+	}
+	public static boolean getFilteredTarget(TargetData out) {
+		return getFilteredTarget(out, Timer.getFPGATimestamp());
+	}
+	public static boolean getFilteredTarget(TargetData out, double t) {	// estimate for the active target at FPGA time 't' -- falls back to latest() without a filter
+		final TargetFilter f = vsi.filters.get(vsi.activeName());
+		return f != null ? f.predict(t, out) : latest(out);
+	}
+	public static void setFusionEnabled(boolean enabled) {	// fuse the per-camera "Target" results of every camera -- see TargetFusion
+		synchronized(vsi.fusion) {
+			vsi.fusion_enabled = enabled;
+			if(enabled) {
+				vsi.fusion.attach(vsi.vscameras.list());
+			} else {
+				vsi.fusion.detach();
+			}
+		}
+	}
+	public static boolean isFusionEnabled() {
+		return vsi.fusion_enabled;
+	}
+	public static TargetFusion getFusion() {
+		return vsi.fusion;
+	}
+	public static boolean getFusedTarget(TargetData out) {	// returns false until a fused estimate exists
+		return vsi.fusion.read(out);
+	}
+	public static TargetQueue openQueue(int capacity) {		// every active target frame from now on, in order -- drain once per loop, close when done
+		final TargetQueue q = new TargetQueue(capacity);
+		vsi.target_listeners.add(q);
+		return q;
+	}
+	public static void closeQueue(TargetQueue q) {
+		vsi.target_listeners.remove(q);
+	}
+	public static TargetSlot getLatestSlot() {
+		return vsi.latest;
+	}
+	public static void addTargetListener(Consumer<TargetData> l) {	// called on the NT listener thread; the TargetData passed is reused, so copy it to keep it
+		vsi.target_listeners.add(l);
+	}
+	public static boolean removeTargetListener(Consumer<TargetData> l) {
+		return vsi.target_listeners.remove(l);
+	}
+	public static double ntToFPGA(long nt_us) {		// converts an NT timestamp to FPGA seconds (the clocks coincide on the roboRIO, but not in simulation)
+		return (nt_us + (RobotController.getFPGATime() - NetworkTablesJNI.now())) * 1e-6;
+	}
+	public static PoseHistory getPoseHistory() {
+		return vsi.poses;
+	}
+	public static void recordPose(double x, double y, double heading) {	// call once per loop -- field units matching the target offsets, heading in degrees (CCW+)
+		vsi.poses.record(x, y, heading);
+	}
+	public static TargetData compensate(TargetData d) {
+		return compensate(d, Timer.getFPGATimestamp());
+	}
+	public static TargetData compensate(TargetData d, double now) {		// moves 'd' from its capture time to 'now' using the recorded poses, in place
+		PoseHistory h = vsi.poses;
+		if(h.size() == 0 || d.capture <= 0.0) {
+			return d;
+		}
+		final double
+			h0 = h.headingAt(d.capture),
+			dh = Math.IEEEremainder(h.headingAt(now) - h0, 360.0),
+			dx = h.xAt(now) - h.xAt(d.capture),
+			dy = h.yAt(now) - h.yAt(d.capture);
+		if(d.pos != null && (d.pos.x != 0.0 || d.pos.z != 0.0)) {
+			final double
+				r0 = Math.toRadians(h0),
+				rd = Math.toRadians(dh),
+				fwd = dx * Math.cos(r0) + dy * Math.sin(r0),
+				left = -dx * Math.sin(r0) + dy * Math.cos(r0),
+				px = d.pos.x + left,		// relative to where the robot was at capture
+				pz = d.pos.z - fwd,
+				norm = Math.sqrt(d.pos.x * d.pos.x + d.pos.y * d.pos.y + d.pos.z * d.pos.z);
+			d.pos.x = px * Math.cos(rd) + pz * Math.sin(rd);	// rotated into the current robot heading
+			d.pos.z = -px * Math.sin(rd) + pz * Math.cos(rd);
+			d.distance += Math.sqrt(d.pos.x * d.pos.x + d.pos.y * d.pos.y + d.pos.z * d.pos.z) - norm;
+			d.lr = Math.toDegrees(Math.atan2(d.pos.x, d.pos.z));
+		} else {
+			d.lr += dh;
+		}
+		d.capture = now;
+		return d;
+	}
+	public static double getCompensatedThetaLR(TargetData buff) {	// uses 'buff' as scratch space, returns the LR angle as it would be seen now
+		if(!latest(buff)) {
+			getTargetData(buff);
+		}
+		return compensate(buff).lr;
+	}
+	public static long getTargetFrame() {	// returns -1 if the coprocessor does not publish packed frames
+		return current(scratch.get()).frame;
 	}
 	public static TargetData getTargetDataIfMatching(String target) {	// returns null on mismatch
-		if(getActiveTargetName().equals(target)) {
-			return getTargetData();
+		return getTargetDataIfMatching(target, new TargetData());
+	}
+	public static TargetData getTargetDataIfMatching(String target, TargetData out) {	// returns null on mismatch
+		TargetEntries active = vsi.active_entries;
+		final String r = vsi.replay_target;
+		if((r != null ? r : active.name).equals(target)) {
+			return read(active, out);
 		}
 		return null;
 	}
 
+	private static synchronized SwitchHandle requestSwitch(boolean camera, int idx) {	// returns null if the index entry could not be written
+		final NetworkTableEntry e = camera ? vsi.cam_idx : vsi.pipe_idx;
+		(camera ? vsi.queued_camera : vsi.queued_pipeline).set(null);	// an explicit request supersedes a queued one
+		if(!e.setDouble(idx)) {
+			return null;
+		}
+		final long g = vsi.switch_generation + 1;
+		final SwitchHandle h = new SwitchHandle(camera, idx, g, Timer.getFPGATimestamp());
+		final SwitchHandle prev = (camera ? vsi.pending_camera : vsi.pending_pipeline).getAndSet(h);
+		vsi.switch_generation = g;		// published after the pending handle, so ingest() never confirms 'g' early
+		if(prev != null) {
+			prev.supersede();
+		}
+		NetworkTableInstance.getDefault().flush();
+		final VisionRecorder r = vsi.recorder;
+		if(r != null) {
+			r.recordSwitch(camera, idx, g);
+		}
+		return h;
+	}
+	public static SwitchHandle switchCamera(int idx) {		// returns null if the index is invalid
+		return idx < numCameras() && idx >= 0 ? requestSwitch(true, idx) : null;
+	}
+	public static SwitchHandle switchCamera(String name) {	// returns null if the name is unknown, or if it was queued without a cached index (see setCamera(String))
+		final int i = resolveName(true, name);
+		if(i == -1) {
+			return queueSwitch(true, name);
+		}
+		return i >= 0 ? switchCamera(i) : null;
+	}
+	public static SwitchHandle switchPipeline(int idx) {	// returns null if the index is invalid
+		return idx < numPipelines() && idx >= 0 ? requestSwitch(false, idx) : null;
+	}
+	public static SwitchHandle switchPipeline(String name) {	// returns null if the name is unknown, or if it was queued without a cached index (see setPipeline(String))
+		final int i = resolveName(false, name);
+		if(i == -1) {
+			return queueSwitch(false, name);
+		}
+		return i >= 0 ? switchPipeline(i) : null;
+	}
+	public static long getSwitchGeneration() {	// frames with a lower TargetData.generation predate the latest switch request
+		return vsi.switch_generation;
+	}
+	public static boolean isSwitchPending() {
+		return vsi.pending_camera.get() != null || vsi.pending_pipeline.get() != null;
+	}
+	public static LatencyHistogram getCameraSwitchLatency() {
+		return vsi.camera_switch_latency;
+	}
+	public static LatencyHistogram getPipelineSwitchLatency() {
+		return vsi.pipeline_switch_latency;
+	}
+
 	public static int numCameras() {
 		return (int)vsi.num_cams.getDouble(0.0);	// returns 0 on failure
 	}
@@ -237,18 +789,15 @@ public final class VisionServer {
 		return (int)vsi.cam_idx.getDouble(-1.0);	// returns -1 on failure
 	}
 	public static boolean setCamera(int idx) {		// returns whether the input index was valid or not
-		return idx < numCameras() && idx >= 0 && vsi.cam_idx.setDouble(idx);
-	}
-	public static boolean setCamera(String name) {
-		int i = 0;
-		for(String c : vsi.cameras.getSubTables()) {
-			if(c.equals(name)) {
-				//System.out.println("SetCamera: idx(" + i + "), name(" + name + ")");
-				return setCamera(i);
-			}
-			i++;
+		return switchCamera(idx) != null;
+	}
+	public static boolean setCamera(String name) {	// before the live layout is known the switch goes to the cached index and is queued until the live one resolves -- returns false only for unknown names
+		final int i = resolveName(true, name);
+		if(i == -1) {
+			queueSwitch(true, name);
+			return true;
 		}
-		return false;
+		return i >= 0 && setCamera(i);
 	}
 	public static boolean setCamera(VsCamera cam) {
 		return setCamera(cam.name);
@@ -256,19 +805,19 @@ public final class VisionServer {
 	public static boolean incrementCamera() {
 		int idx = getCameraIdx();
 		if(idx + 1 < numCameras()) {
-			vsi.cam_idx.setDouble(idx + 1);
+			requestSwitch(true, idx + 1);
 			return true;
 		}
-		vsi.cam_idx.setDouble(0.0);	// wrap around
+		requestSwitch(true, 0);	// wrap around
 		return false;
 	}
 	public static boolean decrementCamera() {
 		int idx = getCameraIdx();
 		if(idx - 1 >= 0) {
-			vsi.cam_idx.setDouble(idx - 1);
+			requestSwitch(true, idx - 1);
 			return true;
 		}
-		vsi.cam_idx.setDouble(numCameras() - 1);	// wrap around
+		requestSwitch(true, numCameras() - 1);	// wrap around
 		return false;
 	}
 	public static int numPipelines() {
@@ -278,17 +827,15 @@ public final class VisionServer {
 		return (int)vsi.pipe_idx.getDouble(-1.0);		// returns -1 on failure
 	}
 	public static boolean setPipeline(int idx) {	// returns whether the input index was valid or not
-		return idx < numPipelines() && idx >= 0 && vsi.pipe_idx.setDouble(idx);
+		return switchPipeline(idx) != null;
 	}
-	public static boolean setPipeline(String name) {
-		int i = 0;
-		for(String p : vsi.pipelines.getSubTables()) {
-			if(p.equals(name)) {
-				return setPipeline(i);
-			}
-			i++;
+	public static boolean setPipeline(String name) {	// queued like setCamera(String)
+		final int i = resolveName(false, name);
+		if(i == -1) {
+			queueSwitch(false, name);
+			return true;
 		}
-		return false;
+		return i >= 0 && setPipeline(i);
 	}
 	public static boolean setPipeline(VsPipeline pipe) {
 		return setPipeline(pipe.name);
@@ -296,19 +843,19 @@ public final class VisionServer {
 	public static boolean incrementPipeline() {
 		int idx = getPipelineIdx();
 		if(idx + 1 < numPipelines()) {
-			vsi.pipe_idx.setDouble(idx + 1);
+			requestSwitch(false, idx + 1);
 			return true;
 		}
-		vsi.pipe_idx.setDouble(0.0);	// wrap around
+		requestSwitch(false, 0);	// wrap around
 		return false;
 	}
 	public static boolean decrementPipeline() {
 		int idx = getPipelineIdx();
 		if(idx - 1 >= 0) {
-			vsi.pipe_idx.setDouble(idx - 1);
+			requestSwitch(false, idx - 1);
 			return true;
 		}
-		vsi.pipe_idx.setDouble(numPipelines() - 1);	// wrap around
+		requestSwitch(false, numPipelines() - 1);	// wrap around
 		return false;
 	}
 
@@ -329,7 +876,9 @@ public final class VisionServer {
 
 		public static class NetworkEditable extends CameraPreset {
 
-			private NetworkTable table = null;
+			private volatile NetworkTable table = null;
+			private NetworkTableEntry brightness_entry, exposure_entry, whitebalance_entry;	// written before 'table'
+			private volatile CameraPreset values = null;	// last result of getValues(), reused while nothing changes
 
 			public NetworkEditable(int b, int e, int wb) {
 				super(b, e, wb);
@@ -344,28 +893,34 @@ public final class VisionServer {
 			}
 
 			public void initializeNT(NetworkTable t) {
+				this.brightness_entry = t.getEntry("Brightness");
+				this.exposure_entry = t.getEntry("Exposure");
+				this.whitebalance_entry = t.getEntry("White Balance");
 				this.table = t;
 				this.resetValues();
 			}
 			public void initializeNT(NetworkTable t, String n) {
-				this.table = t.getSubTable(n);
-				this.resetValues();
+				this.initializeNT(t.getSubTable(n));
 			}
 			public void resetValues() {
 				if(this.table != null) {
-					this.table.getEntry("Brightness").setDouble(this.brightness);
-					this.table.getEntry("Exposure").setDouble(this.exposure);
-					this.table.getEntry("White Balance").setDouble(this.whitebalance);
+					this.brightness_entry.setDouble(this.brightness);
+					this.exposure_entry.setDouble(this.exposure);
+					this.whitebalance_entry.setDouble(this.whitebalance);
 				}
 			}
 
 			public CameraPreset getValues() {
 				if(this.table != null) {
-					return new CameraPreset(
-						(int)this.table.getEntry("Brightness").getDouble(0),
-						(int)this.table.getEntry("Exposure").getDouble(0),
-						(int)this.table.getEntry("White Balance").getDouble(0)
-					);
+					final int
+						b = (int)this.brightness_entry.getDouble(0),
+						e = (int)this.exposure_entry.getDouble(0),
+						wb = (int)this.whitebalance_entry.getDouble(0);
+					CameraPreset v = this.values;
+					if(v == null || v.brightness != b || v.exposure != e || v.whitebalance != wb) {
+						this.values = v = new CameraPreset(b, e, wb);
+					}
+					return v;
 				}
 				return this;
 			}
@@ -385,7 +940,12 @@ public final class VisionServer {
 			this.entry = n;
 			this.value = v;
 		}
-		//public abstract void setValue(NetworkTable nt);
+		public void setValue(NetworkTable nt) {
+			if(nt.containsKey(this.entry)) {
+				this.setValue(nt.getEntry(this.entry));
+			}
+		}
+		public abstract boolean setValue(NetworkTableEntry e);
 
 	}
 	public static class BooleanOption extends EntryOption<Boolean> {
@@ -393,10 +953,8 @@ public final class VisionServer {
 		public BooleanOption(String n, Boolean v) { 
 			super(n, v); 
 		}
-		public void setValue(NetworkTable nt) {
-			if(nt.containsKey(this.entry)) {
-				nt.getEntry(this.entry).setBoolean(this.value.booleanValue());
-			}
+		public boolean setValue(NetworkTableEntry e) {
+			return e.setBoolean(this.value.booleanValue());
 		}
 
 	}
@@ -405,10 +963,8 @@ public final class VisionServer {
 		public NumericOption(String n, Double v) { 
 			super(n, v); 
 		}
-		public void setValue(NetworkTable nt) {
-			if(nt.containsKey(this.entry)) {
-				nt.getEntry(this.entry).setDouble(this.value.doubleValue());
-			}
+		public boolean setValue(NetworkTableEntry e) {
+			return e.setDouble(this.value.doubleValue());
 		}
 
 	}
@@ -417,10 +973,8 @@ public final class VisionServer {
 		public StringOption(String n, String v) {
 			super(n, v);
 		}
-		public void setValue(NetworkTable nt) {
-			if(nt.containsKey(this.entry)) {
-				nt.getEntry(this.entry).setString(this.value);
-			}
+		public boolean setValue(NetworkTableEntry e) {
+			return e.setString(this.value);
 		}
 
 	}
@@ -429,17 +983,21 @@ public final class VisionServer {
 
 	public static class VsCamera {
 
-		private NetworkTable self;
-		private String name;
-		private int idx = -1;
+		private volatile NetworkTable self;
+		private volatile String name;
+		private volatile int idx = -1;	// assigned by the registry before the snapshot containing this is published
+		private volatile NetworkTableEntry exposure, brightness, whitebalance;
+		private volatile CameraTransform transform = null;
 
 		public void update(NetworkTable nt) {
+			this.exposure = nt.getEntry("Exposure");
+			this.brightness = nt.getEntry("Brightness");
+			this.whitebalance = nt.getEntry("WhiteBalance");
 			this.self = nt;
 			this.name = NetworkTable.basenameKey(nt.getPath());
 		}
 		public void update(String tname) {
-			this.self = VisionServer.Get().cameras.getSubTable(tname);
-			this.name = tname;
+			this.update(VisionServer.Get().cameras.getSubTable(tname));
 		}
 		public VsCamera(NetworkTable nt) { this.update(nt); }
 		public VsCamera(String tname) { this.update(tname); }
@@ -455,35 +1013,44 @@ public final class VisionServer {
 		}
 
 		public int getExposure() {
-			return (int)this.self.getEntry("Exposure").getDouble(0.0);
+			return (int)this.exposure.getDouble(0.0);
 		}
 		public int getBrightness() {
-			return (int)this.self.getEntry("Brightness").getDouble(0.0);
+			return (int)this.brightness.getDouble(0.0);
 		}
 		public int getWhiteBalance() {
-			return (int)this.self.getEntry("WhiteBalance").getDouble(0.0);
+			return (int)this.whitebalance.getDouble(0.0);
 		}
 		public boolean setExposure(int e) {
-			return this.self.getEntry("Exposure").setDouble(e);
+			return this.exposure.setDouble(e);
 		}
 		public boolean setBrightness(int b) {
-			return this.self.getEntry("Brightness").setDouble(b);
+			return this.brightness.setDouble(b);
 		}
 		public boolean setWhiteBalance(int wb) {
-			return this.self.getEntry("WhiteBalance").setDouble(wb);
+			return this.whitebalance.setDouble(wb);
 		}
 		public NetworkTableEntry getExposureEntry() {
-			return this.self.getEntry("Exposure");
+			return this.exposure;
 		}
 		public NetworkTableEntry getBrightnessEntry() {
-			return this.self.getEntry("Brightness");
+			return this.brightness;
 		}
 		public NetworkTableEntry getWhiteBalanceEntry() {
-			return this.self.getEntry("WhiteBalance");
+			return this.whitebalance;
 		}
 		public boolean applyPreset(CameraPreset p) {
 			return this.setBrightness(p.brightness) && this.setExposure(p.exposure) && this.setWhiteBalance(p.whitebalance);
 		}
+		public void setTransform(CameraTransform t) {	// frames from this camera are converted to robot-relative values on arrival, null to disable
+			this.transform = t;
+		}
+		public CameraTransform getTransform() {
+			return this.transform;
+		}
+		public boolean applyPreset(CameraPreset p, PropertyBatch batch) {	// skips unchanged values, the caller flushes the batch
+			return batch.set(this.brightness, p.brightness) & batch.set(this.exposure, p.exposure) & batch.set(this.whitebalance, p.whitebalance);
+		}
 
 		public String toString() {
 			return this.getClass().getName() + '(' + this.name + ")@" + Integer.toHexString(this.hashCode()) + 
@@ -494,19 +1061,23 @@ public final class VisionServer {
 	}
 	public static class VsPipeline {
 
-		private NetworkTable self;
-		private String name;
-		private int idx = -1;
+		private volatile NetworkTable self;
+		private volatile String name;
+		private volatile int idx = -1;	// assigned by the registry before the snapshot containing this is published
 
-		NetworkTableEntry debug = null, thresh = null;
+		private volatile PropertyIndex properties;
+		volatile NetworkTableEntry debug = null, thresh = null;
 
 		public void update(NetworkTable nt) {
+			if(this.properties != null) {
+				this.properties.close();
+			}
+			this.properties = new PropertyIndex(nt);
 			this.self = nt;
 			this.name = NetworkTable.basenameKey(nt.getPath());
 		}
 		public void update(String tname) {
-			this.self = VisionServer.Get().pipelines.getSubTable(tname);
-			this.name = tname;
+			this.update(VisionServer.Get().pipelines.getSubTable(tname));
 		}
 		public VsPipeline(NetworkTable nt) {
 			this.update(nt);
@@ -514,6 +1085,12 @@ public final class VisionServer {
 		public VsPipeline(String tname) {
 			this.update(tname);
 		}
+		public void close() {	// releases the property index listener -- called by the registry when the pipeline is dropped
+			final PropertyIndex p = this.properties;
+			if(p != null) {
+				p.close();
+			}
+		}
 
 		public int getIdx() {
 			return this.idx;
@@ -525,98 +1102,74 @@ public final class VisionServer {
 			return this.self;
 		}
 
-		public void applyProperties(EntryPreset[] properties) {
+		public PropertyIndex getProperties() {
+			return this.properties;
+		}
+
+		public void applyProperties(EntryPreset[] properties) {		// options are resolved through the key index, other presets get the table
+			final PropertyIndex index = this.properties;
 			for(EntryPreset preset : properties) {
-				preset.setValue(this.self);
+				if(preset instanceof EntryOption) {
+					final EntryOption<?> option = (EntryOption<?>)preset;
+					final NetworkTableEntry e = index.get(option.entry);
+					if(e != null) {
+						option.setValue(e);
+					}
+				} else {
+					preset.setValue(this.self);
+				}
 			}
 		}
 		
+		public PipelineProfile compileProfile(EntryPreset... properties) {	// for options applied repeatedly -- see PipelineProfile
+			return new PipelineProfile(this, properties);
+		}
 		public NetworkTableEntry[] getEntries() {
-			NetworkTableEntry entries[] = new NetworkTableEntry[this.self.getKeys().size()];
-			int i = 0;
-			for(String entry : this.self.getKeys()) {
-				entries[i] = (this.self.getEntry(entry));
-				i++;
-			}
-			return entries;
+			return this.properties.getEntries();
 		}
 		public NetworkTableEntry searchEntries(String segment) {
-			String lower = segment.toLowerCase();
-			for(String key : this.self.getKeys()) {
-				if(key.toLowerCase().contains(lower)) {
-					return this.self.getEntry(key);
-				}
-			}
-			return null;
+			return this.properties.search(segment);
 		}
 		public NetworkTableEntry[] searchEntries(String[] segments) {
+			final PropertyIndex index = this.properties;
 			NetworkTableEntry ret[] = new NetworkTableEntry[segments.length];
-			String kbuff;
-			for(String key : this.self.getKeys()) {
-				kbuff = key.toLowerCase();
-				for(int i = 0; i < segments.length; i++) {
-					if(kbuff.contains(segments[i].toLowerCase())) {
-						ret[i] = this.self.getEntry(key);
-					}
-				}
+			for(int i = 0; i < segments.length; i++) {
+				ret[i] = index.search(segments[i]);
 			}
 			return ret;
 		}
 		public void searchUsableEntries() {
-			String buff;
-			for(String key : this.self.getKeys()) {
-				buff = key.toLowerCase();
-				if(buff.contains("debug")) {
-					this.debug = this.self.getEntry(key);
-				}
-				if(buff.contains("threshold")) {	// else if?
-					this.thresh = this.self.getEntry(key);
-				}
-			}
+			this.debug = this.properties.search("debug");
+			this.thresh = this.properties.search("threshold");
+		}
+		public NetworkTableEntry getDebugEntry() {		// returns null if the pipeline has no debug property
+			return this.debug = this.properties.search("debug");
+		}
+		public NetworkTableEntry getThresholdEntry() {	// returns null if the pipeline has no threshold property
+			return this.thresh = this.properties.search("threshold");
 		}
 		public boolean hasDebug() {
-			if(this.debug == null) {
-				this.searchUsableEntries();
-				if(this.debug == null) {
-					return false;
-				}
-			}
-			return true;
+			return this.getDebugEntry() != null;
 		}
 		public boolean hasThreshold() {
-			if(this.thresh == null) {
-				this.searchUsableEntries();
-				if(this.debug == null) {
-					return false;
-				}
-			}
-			return true;
+			return this.getThresholdEntry() != null;
 		}
 		public boolean setDebug(boolean val) {
-			if(this.debug == null) {
-				this.searchUsableEntries();
-				if(this.debug == null) {
-					return false;
-				}
-			}
-			return this.debug.setBoolean(val);
+			final NetworkTableEntry e = this.getDebugEntry();
+			return e != null && e.setBoolean(val);
 		}
 		public boolean setThreshold(boolean val) {
-			if(this.thresh == null) {
-				this.searchUsableEntries();
-				if(this.debug == null) {
-					return false;
-				}
-			}
-			return this.thresh.setBoolean(val);
+			final NetworkTableEntry e = this.getThresholdEntry();
+			return e != null && e.setBoolean(val);
 		}
 
 
 	}
 
 	public static class TargetOffset {
-		public double x, y, z;
+		public double x, y, z;	// x -> + : right, y -> + : up, z -> + : forward (away from the camera)
 		// rotation also when that gets implemented in the networktables
+		public TargetOffset() {}
 		public TargetOffset(double x, double y, double z) {
 			this.x = x;
 			this.y = y;
@@ -629,9 +1182,35 @@ public final class VisionServer {
 		}
 	}
 	public static class TargetData {
+		// layout of the packed "data" entry, which the coprocessor writes in one shot per frame
+		public static final int
+			PACKED_FRAME = 0,
+			PACKED_X = 1,
+			PACKED_Y = 2,
+			PACKED_Z = 3,
+			PACKED_DISTANCE = 4,
+			PACKED_UD = 5,
+			PACKED_LR = 6,
+			PACKED_LENGTH = 7,	// minimum length, optional fields follow
+			PACKED_LATENCY = 7,	// (optional) capture to publish latency in ms
+			PACKED_CAMERA = 8,	// (optional) index of the camera the frame came from
+			PACKED_PIPELINE = 9,	// (optional) index of the pipeline that produced the frame
+			PACKED_CONFIDENCE = 10;	// (optional) detection confidence, 0 to 1
+		static final double[] EMPTY = new double[0];
+
 		public TargetOffset pos;
 		public double distance, ud, lr;	// ud -> + : up, - : down	lr -> + : right, - : left
-
+		public long frame = -1;		// coprocessor frame sequence number, -1 when read field-by-field (may be torn)
+		public long timestamp = 0;	// NT time (us) at which the values were last changed
+		public double latency = 0.0;	// coprocessor-reported capture to publish latency (ms), 0 if not published
+		public double capture = 0.0;	// estimated capture time in FPGA seconds
+		public int camera = -1, pipeline = -1;	// source indices, -1 if not published
+		public double confidence = 1.0;
+		public long generation = 0;		// switch generation the frame belongs to -- compare with VisionServer.getSwitchGeneration()
+
+		public TargetData() {
+			this.pos = new TargetOffset();
+		}
 		public TargetData(double x, double y, double z, double d, double ud, double lr) {
 			this.pos = new TargetOffset(x, y, z);
 			this.distance = d;
@@ -645,10 +1224,114 @@ public final class VisionServer {
 			this.lr = lr;
 		}
 		public TargetData(NetworkTable target) {
-			this.pos = new TargetOffset(target);
-			this.distance = target.getEntry("distance").getDouble(0.0);
-			this.ud = target.getEntry("up-down").getDouble(0.0);
-			this.lr = target.getEntry("left-right").getDouble(0.0);
+			NetworkTableEntry data = target.getEntry("data");
+			if(!this.unpack(data.getDoubleArray(EMPTY), data.getLastChange())) {
+				this.pos = new TargetOffset(target);
+				this.distance = target.getEntry("distance").getDouble(0.0);
+				this.ud = target.getEntry("up-down").getDouble(0.0);
+				this.lr = target.getEntry("left-right").getDouble(0.0);
+				this.timestamp = target.getEntry("distance").getLastChange();
+				this.latency = 0.0;
+				this.capture = ntToFPGA(this.timestamp);
+				this.camera = -1;
+				this.pipeline = -1;
+				this.confidence = 1.0;
+			}
+		}
+
+		public TargetData set(TargetData other) {	// deep copy into this, returns this
+			if(this.pos == null) {
+				this.pos = new TargetOffset();
+			}
+			this.pos.x = other.pos.x;
+			this.pos.y = other.pos.y;
+			this.pos.z = other.pos.z;
+			this.distance = other.distance;
+			this.ud = other.ud;
+			this.lr = other.lr;
+			this.frame = other.frame;
+			this.timestamp = other.timestamp;
+			this.latency = other.latency;
+			this.capture = other.capture;
+			this.camera = other.camera;
+			this.pipeline = other.pipeline;
+			this.confidence = other.confidence;
+			this.generation = other.generation;
+			return this;
+		}
+		public boolean isCoherent() {
+			return this.frame >= 0;
+		}
+		public boolean unpack(double[] packed, long timestamp) {	// returns false (and leaves this untouched) if the array is not a full frame
+			if(packed == null || packed.length < PACKED_LENGTH) {
+				return false;
+			}
+			if(this.pos == null) {
+				this.pos = new TargetOffset();
+			}
+			this.frame = (long)packed[PACKED_FRAME];
+			this.pos.x = packed[PACKED_X];
+			this.pos.y = packed[PACKED_Y];
+			this.pos.z = packed[PACKED_Z];
+			this.distance = packed[PACKED_DISTANCE];
+			this.ud = packed[PACKED_UD];
+			this.lr = packed[PACKED_LR];
+			this.timestamp = timestamp;
+			this.latency = packed.length > PACKED_LATENCY ? packed[PACKED_LATENCY] : 0.0;
+			this.capture = ntToFPGA(timestamp) - this.latency * 1e-3;
+			this.camera = packed.length > PACKED_CAMERA ? (int)packed[PACKED_CAMERA] : -1;
+			this.pipeline = packed.length > PACKED_PIPELINE ? (int)packed[PACKED_PIPELINE] : -1;
+			this.confidence = packed.length > PACKED_CONFIDENCE ? packed[PACKED_CONFIDENCE] : 1.0;
+			return true;
+		}
+	}
+
+	private static final class TargetEntries {	// entry handles for one target, resolved once per "Active Target" change
+		final String name;
+		final NetworkTable table;
+		final NetworkTableEntry data, x, y, z, distance, ud, lr;
+		final FieldAssembler fields = new FieldAssembler();		// listener thread only
+
+		TargetEntries(NetworkTable targets, String name) {
+			this.name = name;
+			this.table = targets.getSubTable(name);
+			this.data = this.table.getEntry("data");
+			this.x = this.table.getEntry("x");
+			this.y = this.table.getEntry("y");
+			this.z = this.table.getEntry("z");
+			this.distance = this.table.getEntry("distance");
+			this.ud = this.table.getEntry("up-down");
+			this.lr = this.table.getEntry("left-right");
+		}
+
+		boolean present() {
+			return this.data.exists() || this.lr.exists();
+		}
+		TargetOffset read(TargetOffset out) {
+			out.x = this.x.getDouble(0.0);
+			out.y = this.y.getDouble(0.0);
+			out.z = this.z.getDouble(0.0);
+			return out;
+		}
+		TargetData read(TargetData out) {
+			if(out.unpack(this.data.getDoubleArray(TargetData.EMPTY), this.data.getLastChange())) {
+				return out;
+			}
+			if(out.pos == null) {	// compatibility path for coprocessors that only publish the separate entries
+				out.pos = new TargetOffset();
+			}
+			this.read(out.pos);
+			out.distance = this.distance.getDouble(0.0);
+			out.ud = this.ud.getDouble(0.0);
+			out.lr = this.lr.getDouble(0.0);
+			out.frame = -1;
+			out.timestamp = this.distance.getLastChange();
+			out.latency = 0.0;
+			out.capture = ntToFPGA(out.timestamp);
+			out.camera = -1;
+			out.pipeline = -1;
+			out.confidence = 1.0;
+			return out;
 		}
 	}
 
@@ -0,0 +1,202 @@
+package frc.robot.vision.java;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.EntryListenerFlags;
+
+
+/** Stand-in coprocessor: publishes cameras, pipelines and moving targets in the same layout as the real one, and honors
+ * "Camera Index", "Pipeline Index" and "Enable Processing". Target motion is a pure function of the frame number, so runs are deterministic.
+ * local() publishes straight into the default instance (no network, no flush rate limit); networked() connects a separate client instance. */
+public final class VisionSimulator implements AutoCloseable {
+
+	private final NetworkTableInstance inst;
+	private final boolean owned;
+	private final NetworkTable root;
+	private final NetworkTableEntry
+		num_cams, cam_idx, cam_name,
+		num_pipes, pipe_idx,
+		processing, active_target;
+	private final String[] camera_names;
+	private final NetworkTableEntry[] camera_targets;	// per-camera results of the first target, for fusion
+	private final NetworkTableEntry[][] targets;	// [target][x, y, z, distance, up-down, left-right, data]
+	private final double[] packed = new double[VisionServer.TargetData.PACKED_CONFIDENCE + 1];
+	private final int heartbeat_listener;
+
+	private final ScheduledExecutorService exec;
+	private ScheduledFuture<?> task = null;
+	private volatile double rate = 60.0, latency = 20.0;	// Hz, ms
+	private volatile double radius = 1.0, range = 4.0, height = 1.5, period = 4.0;	// target motion (target offset units, seconds)
+	private long frame = 0;
+	private volatile long published = 0;
+
+
+	private VisionSimulator(NetworkTableInstance inst, boolean owned, int cameras, int pipelines, int targets) {
+		this.inst = inst;
+		this.owned = owned;
+		this.root = inst.getTable("Vision Server");
+		this.num_cams = this.root.getEntry("Cameras Available");
+		this.cam_idx = this.root.getEntry("Camera Index");
+		this.cam_name = this.root.getEntry("Camera Name");
+		this.num_pipes = this.root.getEntry("Pipelines Available");
+		this.pipe_idx = this.root.getEntry("Pipeline Index");
+		this.processing = this.root.getEntry("Enable Processing");
+		this.active_target = this.root.getEntry("Active Target");
+
+		this.camera_names = new String[cameras];
+		this.camera_targets = new NetworkTableEntry[cameras];
+		final NetworkTable cams = this.root.getSubTable("Cameras");
+		for(int i = 0; i < cameras; i++) {
+			final NetworkTable c = cams.getSubTable(this.camera_names[i] = "Camera " + i);
+			c.getEntry("Exposure").setDouble(40);
+			c.getEntry("Brightness").setDouble(50);
+			c.getEntry("WhiteBalance").setDouble(4500);
+			this.camera_targets[i] = c.getEntry("Target");
+		}
+		final NetworkTable pipes = this.root.getSubTable("Pipelines");
+		for(int i = 0; i < pipelines; i++) {
+			final NetworkTable p = pipes.getSubTable("Pipeline " + i);
+			p.getEntry("Show Debug").setBoolean(false);
+			p.getEntry("Show Threshold").setBoolean(false);
+			p.getEntry("Hue Min").setDouble(40);
+			p.getEntry("Hue Max").setDouble(90);
+		}
+		this.targets = new NetworkTableEntry[targets][];
+		final NetworkTable tt = inst.getTable("Targets");
+		for(int i = 0; i < targets; i++) {
+			final NetworkTable t = tt.getSubTable("Target " + i);
+			this.targets[i] = new NetworkTableEntry[]{
+				t.getEntry("x"), t.getEntry("y"), t.getEntry("z"),
+				t.getEntry("distance"), t.getEntry("up-down"), t.getEntry("left-right"), t.getEntry("data")
+			};
+		}
+		this.num_cams.setDouble(cameras);
+		this.num_pipes.setDouble(pipelines);
+		this.cam_idx.setDefaultDouble(0);
+		this.pipe_idx.setDefaultDouble(0);
+		this.processing.setDefaultBoolean(true);
+		this.cam_name.setString(cameras > 0 ? this.camera_names[0] : "none");
+		this.active_target.setString(targets > 0 ? "Target 0" : "none");
+
+		final NetworkTableEntry echo = this.root.getEntry("Heartbeat Echo");
+		this.heartbeat_listener = this.root.getEntry("Heartbeat").addListener(
+			(e) -> {
+				if(e.value != null && e.value.isDouble()) {
+					echo.setDouble(e.value.getDouble());
+					this.inst.flush();
+				}
+			}, EntryListenerFlags.kNew | EntryListenerFlags.kUpdate | EntryListenerFlags.kLocal
+		);
+		this.exec = Executors.newSingleThreadScheduledExecutor((r) -> {
+			Thread t = new Thread(r, "Vision Simulator");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+	public static VisionSimulator local(int cameras, int pipelines, int targets) {
+		return new VisionSimulator(NetworkTableInstance.getDefault(), false, cameras, pipelines, targets);
+	}
+	public static VisionSimulator networked(String server, int port, int cameras, int pipelines, int targets) {
+		NetworkTableInstance inst = NetworkTableInstance.create();
+		inst.startClient(server, port);
+		return new VisionSimulator(inst, true, cameras, pipelines, targets);
+	}
+
+	public void setLatency(double ms) {
+		this.latency = ms;
+	}
+	public void setMotion(double radius, double range, double height, double period) {	// targets circle 'radius' around a point 'range' ahead, one lap per 'period' seconds
+		this.radius = radius;
+		this.range = range;
+		this.height = height;
+		this.period = period;
+	}
+	public double getRate() {
+		return this.rate;
+	}
+	public long getPublished() {
+		return this.published;
+	}
+
+	public synchronized void start(double hz) {
+		this.stop();
+		this.rate = hz;
+		this.task = this.exec.scheduleAtFixedRate(this::step, 0, (long)(1e6 / hz), TimeUnit.MICROSECONDS);
+	}
+	public synchronized void stop() {
+		if(this.task != null) {
+			this.task.cancel(false);
+			this.task = null;
+		}
+	}
+
+	public synchronized void step() {		// publishes one frame -- also usable directly for lockstep tests
+		final long f = this.frame++;
+		final int cams = this.camera_names.length;
+		final int cam = cams > 0 ? Math.floorMod((int)this.cam_idx.getDouble(0), cams) : -1;
+		if(cam >= 0) {
+			this.cam_name.setString(this.camera_names[cam]);
+		}
+		if(!this.processing.getBoolean(true)) {
+			this.inst.flush();
+			return;
+		}
+		final int pipe = (int)this.pipe_idx.getDouble(0);
+		final double t = f / this.rate;
+		for(int i = 0; i < this.targets.length; i++) {
+			final double
+				a = 2.0 * Math.PI * (t / this.period + (double)i / this.targets.length),
+				x = this.radius * Math.sin(a),
+				y = this.height,
+				z = this.range + this.radius * Math.cos(a),
+				d = Math.sqrt(x * x + y * y + z * z),
+				ud = Math.toDegrees(Math.atan2(y, Math.hypot(x, z))),
+				lr = Math.toDegrees(Math.atan2(x, z));
+			final NetworkTableEntry[] e = this.targets[i];
+			e[0].setDouble(x);
+			e[1].setDouble(y);
+			e[2].setDouble(z);
+			e[3].setDouble(d);
+			e[4].setDouble(ud);
+			e[5].setDouble(lr);
+			this.packed[VisionServer.TargetData.PACKED_FRAME] = f;
+			this.packed[VisionServer.TargetData.PACKED_X] = x;
+			this.packed[VisionServer.TargetData.PACKED_Y] = y;
+			this.packed[VisionServer.TargetData.PACKED_Z] = z;
+			this.packed[VisionServer.TargetData.PACKED_DISTANCE] = d;
+			this.packed[VisionServer.TargetData.PACKED_UD] = ud;
+			this.packed[VisionServer.TargetData.PACKED_LR] = lr;
+			this.packed[VisionServer.TargetData.PACKED_LATENCY] = this.latency;
+			this.packed[VisionServer.TargetData.PACKED_CAMERA] = cam;
+			this.packed[VisionServer.TargetData.PACKED_PIPELINE] = pipe;
+			this.packed[VisionServer.TargetData.PACKED_CONFIDENCE] = 1.0;
+			e[6].setDoubleArray(this.packed);
+			if(i == 0) {
+				for(int c = 0; c < cams; c++) {		// every camera sees the first target (camera-relative == robot-relative with no transforms set)
+					this.packed[VisionServer.TargetData.PACKED_CAMERA] = c;
+					this.camera_targets[c].setDoubleArray(this.packed);
+				}
+			}
+		}
+		this.inst.flush();
+		this.published = f + 1;
+	}
+
+	@Override
+	public void close() {
+		this.stop();
+		this.exec.shutdownNow();
+		this.root.getEntry("Heartbeat").removeListener(this.heartbeat_listener);
+		if(this.owned) {
+			this.inst.close();
+		}
+	}
+
+
+}
@@ -1,5 +1,9 @@
 package frc.robot.vision.java;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.function.DoubleConsumer;
+
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj2.command.CommandBase;
 //import edu.wpi.first.wpilibj2.command.Subsystem;
 
@@ -10,14 +14,36 @@ public final class VisionSubsystem {
 		@Override public boolean isFinished() { return true; }
 		@Override public boolean runsWhenDisabled() { return true; }
 	}
+	private static abstract class AwaitGlobal extends CommandBase {		// runs its action on the vision I/O thread and finishes once the coprocessor acknowledges it
+		private final double timeout;
+		private double start;
+		private CompletableFuture<Boolean> action;
+		protected AwaitGlobal(double timeout) { this.timeout = timeout; }
+		protected abstract boolean act();			// vision I/O thread -- returns false if there is nothing to wait for
+		protected abstract boolean acknowledged();	// scheduler thread, polled after act() completes
+		@Override public void initialize() {
+			this.start = Timer.getFPGATimestamp();
+			this.action = VisionIO.supply(this::act);
+		}
+		@Override public boolean isFinished() {
+			if(Timer.getFPGATimestamp() - this.start > this.timeout) {
+				return true;
+			}
+			if(!this.action.isDone()) {
+				return false;
+			}
+			return this.action.isCompletedExceptionally() || !this.action.getNow(false) || this.acknowledged();
+		}
+		@Override public boolean runsWhenDisabled() { return true; }
+	}
 
 	public static class IncrementCamera extends InstantGlobal {
 		private static final IncrementCamera inst = new IncrementCamera();
 		private IncrementCamera() {}
 		public static IncrementCamera Get() { return inst; }
 		@Override public void initialize() { 
-			System.out.println("INCREMENT CAMERA");
-			VisionServer.incrementCamera(); 
+			VisionIO.log("INCREMENT CAMERA");
+			VisionIO.execute(VisionServer::incrementCamera); 
 		}
 	}
 	public static class DecrementCamera extends InstantGlobal {
@@ -25,8 +51,8 @@ public final class VisionSubsystem {
 		private DecrementCamera() {}
 		public static DecrementCamera Get() { return inst; }
 		@Override public void initialize() { 
-			System.out.println("DECREMENT CAMERA");
-			VisionServer.decrementCamera(); 
+			VisionIO.log("DECREMENT CAMERA");
+			VisionIO.execute(VisionServer::decrementCamera); 
 		}
 	}
 	public static class IncrementPipeline extends InstantGlobal {
@@ -34,16 +60,16 @@ public final class VisionSubsystem {
 		private IncrementPipeline() {}
 		public static IncrementPipeline Get() { return inst; }
 		@Override public void initialize() { 
-			System.out.println("INCREMENT PIPELINE");
-			VisionServer.incrementPipeline(); }
+			VisionIO.log("INCREMENT PIPELINE");
+			VisionIO.execute(VisionServer::incrementPipeline); }
 	}
 	public static class DecrementPipeline extends InstantGlobal {
 		private static final DecrementPipeline inst = new DecrementPipeline();
 		private DecrementPipeline() {}
 		public static DecrementPipeline Get() { return inst; }
 		@Override public void initialize() { 
-			System.out.println("DECREMENT PIPELINE");
-			VisionServer.decrementPipeline(); 
+			VisionIO.log("DECREMENT PIPELINE");
+			VisionIO.execute(VisionServer::decrementPipeline); 
 		}
 	}
 	public static class ToggleStatistics extends InstantGlobal {
@@ -51,8 +77,8 @@ public final class VisionSubsystem {
 		private ToggleStatistics() {}
 		public static ToggleStatistics Get() { return inst; }
 		@Override public void initialize() { 
-			System.out.println("TOGGLE STATISTICS");
-			VisionServer.toggleStatistics(); 
+			VisionIO.log("TOGGLE STATISTICS");
+			VisionIO.execute(VisionServer::toggleStatistics); 
 		}
 	}
 	public static class ToggleProcessing extends InstantGlobal {
@@ -60,10 +86,82 @@ public final class VisionSubsystem {
 		private ToggleProcessing() {}
 		public static ToggleProcessing Get() { return inst; }
 		@Override public void initialize() { 
-			System.out.println("TOGGLE PROCESSING");
-			VisionServer.toggleProcessingEnabled(); 
+			VisionIO.log("TOGGLE PROCESSING");
+			VisionIO.execute(VisionServer::toggleProcessingEnabled); 
+		}
+	}
+
+	public static class SetCameraAndWait extends AwaitGlobal {		// finishes when the coprocessor publishes a frame from the new camera
+		private final int offset;
+		private volatile SwitchHandle handle = null;
+		public SetCameraAndWait(int offset) { this(offset, 1.0); }	// relative to the current index, wraps around
+		public SetCameraAndWait(int offset, double timeout) { super(timeout); this.offset = offset; }
+		@Override protected boolean act() {
+			final int n = VisionServer.numCameras();
+			if(n <= 0) { return false; }
+			final int idx = Math.floorMod(VisionServer.getCameraIdx() + this.offset, n);
+			VisionIO.log("SET CAMERA: " + idx);
+			return (this.handle = VisionServer.switchCamera(idx)) != null;
+		}
+		@Override protected boolean acknowledged() {
+			return this.handle.isDone();
+		}
+		public SwitchHandle getHandle() { return this.handle; }
+	}
+	public static class SetPipelineAndWait extends AwaitGlobal {	// finishes when the coprocessor publishes a frame from the new pipeline
+		private final int offset;
+		private volatile SwitchHandle handle = null;
+		public SetPipelineAndWait(int offset) { this(offset, 1.0); }
+		public SetPipelineAndWait(int offset, double timeout) { super(timeout); this.offset = offset; }
+		@Override protected boolean act() {
+			final int n = VisionServer.numPipelines();
+			if(n <= 0) { return false; }
+			final int idx = Math.floorMod(VisionServer.getPipelineIdx() + this.offset, n);
+			VisionIO.log("SET PIPELINE: " + idx);
+			return (this.handle = VisionServer.switchPipeline(idx)) != null;
+		}
+		@Override protected boolean acknowledged() {
+			return this.handle.isDone();
+		}
+		public SwitchHandle getHandle() { return this.handle; }
+	}
+
+	public static class AlignToTarget extends CommandBase {		// turns until the target is centered, reading the vision loop's output rather than NT
+		private final VisionLoop loop;
+		private final DoubleConsumer output;
+		private final double kP, max, tolerance, max_age;
+		private final VisionServer.TargetData target = new VisionServer.TargetData();
+		public AlignToTarget(VisionLoop loop, DoubleConsumer output, double kP, double tolerance) { this(loop, output, kP, 1.0, tolerance, 0.25); }
+		public AlignToTarget(VisionLoop loop, DoubleConsumer output, double kP, double max, double tolerance, double max_age) {	// output is + to turn right (toward + left-right), tolerance in degrees
+			this.loop = loop;
+			this.output = output;
+			this.kP = kP;
+			this.max = max;
+			this.tolerance = tolerance;
+			this.max_age = max_age;
+		}
+		@Override public void initialize() {
+			if(!this.loop.isRunning()) {
+				this.loop.start();
+			}
+		}
+		@Override public void execute() {
+			if(this.hasTarget()) {
+				this.output.accept(Math.max(-this.max, Math.min(this.max, this.kP * this.target.lr)));
+			} else {
+				this.output.accept(0.0);
+			}
+		}
+		@Override public void end(boolean interrupted) {
+			this.output.accept(0.0);
+		}
+		@Override public boolean isFinished() {
+			return this.hasTarget() && Math.abs(this.target.lr) <= this.tolerance;
+		}
+		private boolean hasTarget() {
+			return this.loop.read(this.target) && Timer.getFPGATimestamp() - this.target.capture <= this.max_age;
 		}
 	}
 
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,234 @@
+package frc.robot.vision.java.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import frc.robot.vision.java.NamedRegistry;
+import frc.robot.vision.java.TargetSlot;
+import frc.robot.vision.java.VisionServer.TargetData;
+
+
+/** Concurrency stress test for the lock-free read paths: one writer thread hammers updates while several readers check invariants.
+ * NamedRegistry -- add/remove/reconcile against get/indexOf/list; every snapshot must be self-consistent and the final layout must be indexed correctly (and not disposed).
+ * TargetSlot -- publish against read; every frame read must be whole (all fields from the same publish) and frames must never go backwards for a reader.
+ * Runs standalone (no NT or coprocessor needed) and exits non-zero on any violation.
+ * Run with: java -cp <robot classpath> frc.robot.vision.java.bench.ConcurrencyStress [seconds] [readers] */
+public final class ConcurrencyStress {
+
+	private static final int NAMES = 32;
+
+	private static final class Item {
+		final String name;
+		volatile int idx = -1;
+		volatile boolean disposed = false;
+
+		Item(String name) {
+			this.name = name;
+		}
+	}
+
+	private static final AtomicLong failures = new AtomicLong();
+	private static final AtomicReference<String> first = new AtomicReference<>();
+	private static volatile boolean running;
+
+
+	public static void main(String[] args) throws InterruptedException {
+		final long millis = (long)((args.length > 0 ? Double.parseDouble(args[0]) : 5.0) * 1000);
+		final int readers = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
+
+		System.out.printf("%-44s %14s %14s%n", "test", "writes", "reads");
+		registry(millis, readers);
+		slot(millis, readers);
+
+		if(failures.get() > 0) {
+			System.out.println("FAILED: " + failures.get() + " violations, first: " + first.get());
+			System.exit(1);
+		}
+		System.out.println("OK");
+	}
+
+	private static void registry(long millis, int readers) throws InterruptedException {
+		final NamedRegistry<Item> reg = new NamedRegistry<>(Item::new, i -> i.name, (i, idx) -> i.idx = idx, i -> i.disposed = true);
+		final String[] names = new String[NAMES];
+		for(int i = 0; i < NAMES; i++) {
+			names[i] = "camera" + i;
+		}
+		final AtomicLong writes = new AtomicLong(), reads = new AtomicLong();
+
+		final Thread writer = new Thread(() -> {
+			final ThreadLocalRandom r = ThreadLocalRandom.current();
+			final List<String> live = new ArrayList<>(NAMES);
+			long n = 0;
+			while(running) {
+				final int op = r.nextInt(8);
+				if(op < 3) {
+					reg.add(names[r.nextInt(NAMES)]);
+				} else if(op < 6) {
+					reg.remove(names[r.nextInt(NAMES)]);
+				} else if(op < 7) {
+					live.clear();
+					for(String s : names) {
+						if(r.nextInt(3) != 0) {
+							live.add(s);
+						}
+					}
+					reg.reconcile(live);
+				} else {
+					reg.clear();
+				}
+				n++;
+			}
+			writes.set(n);
+		}, "registry writer");
+
+		final Thread[] rs = new Thread[readers];
+		for(int t = 0; t < readers; t++) {
+			rs[t] = new Thread(() -> {
+				final ThreadLocalRandom r = ThreadLocalRandom.current();
+				long n = 0;
+				while(running) {
+					final NamedRegistry.Snapshot<Item> s = reg.snapshot();	// a snapshot never changes underneath a reader
+					final List<Item> l = s.list();
+					if(l.size() != s.size()) {
+						fail("registry: list() size " + l.size() + " != size() " + s.size());
+					}
+					for(int i = 0; i < s.size(); i++) {
+						final Item it = s.get(i);
+						if(it == null) {
+							fail("registry: null item at " + i + " of " + s.size());
+							continue;
+						}
+						if(l.get(i) != it) {
+							fail("registry: list() disagrees with get() at " + i);
+						}
+						if(s.indexOf(it.name) != i || s.get(it.name) != it) {
+							fail("registry: indexOf(\"" + it.name + "\") = " + s.indexOf(it.name) + ", expected " + i);
+						}
+					}
+					final String name = names[r.nextInt(NAMES)];	// live calls may straddle a swap, but must never hand back the wrong item
+					final Item it = reg.get(name);
+					if(it != null && !it.name.equals(name)) {
+						fail("registry: get(\"" + name + "\") returned " + it.name);
+					}
+					final int idx = reg.indexOf(name);
+					if(idx < -1 || idx >= NAMES) {
+						fail("registry: indexOf(\"" + name + "\") = " + idx);
+					}
+					for(Item i : reg.list()) {		// must not throw ConcurrentModificationException
+						if(i == null) {
+							fail("registry: null item in list()");
+						}
+					}
+					n++;
+				}
+				reads.addAndGet(n);
+			}, "registry reader " + t);
+		}
+
+		run(writer, rs, millis);
+
+		final NamedRegistry.Snapshot<Item> s = reg.snapshot();	// quiescent: every item's index must match its position, and none may be disposed
+		for(int i = 0; i < s.size(); i++) {
+			if(s.get(i).idx != i) {
+				fail("registry: " + s.get(i).name + " has idx " + s.get(i).idx + " at position " + i);
+			}
+			if(s.get(i).disposed) {
+				fail("registry: live item " + s.get(i).name + " was disposed");
+			}
+		}
+		System.out.printf("%-44s %14d %14d%n", "NamedRegistry (readers=" + readers + ")", writes.get(), reads.get());
+	}
+
+	private static void slot(long millis, int readers) throws InterruptedException {
+		final TargetSlot slot = new TargetSlot();
+		final AtomicLong writes = new AtomicLong(), reads = new AtomicLong();
+
+		final Thread writer = new Thread(() -> {
+			final TargetData d = new TargetData();
+			long f = 0;
+			while(running) {
+				f++;
+				fill(d, f);
+				slot.publish(d);
+			}
+			writes.set(f);
+		}, "slot writer");
+
+		final Thread[] rs = new Thread[readers];
+		for(int t = 0; t < readers; t++) {
+			rs[t] = new Thread(() -> {
+				final TargetData out = new TargetData();
+				long n = 0, last = 0;
+				while(running) {
+					if(slot.read(out)) {
+						if(!isWhole(out)) {
+							fail("slot: torn frame " + out.frame + " (x=" + out.pos.x + ", lr=" + out.lr + ", generation=" + out.generation + ")");
+						}
+						if(out.frame < last) {
+							fail("slot: frame went backwards " + last + " -> " + out.frame);
+						}
+						last = out.frame;
+					} else if(slot.getUpdates() > 0 && last > 0) {
+						fail("slot: read() returned false after a publish");
+					}
+					n++;
+				}
+				reads.addAndGet(n);
+			}, "slot reader " + t);
+		}
+
+		run(writer, rs, millis);
+		if(slot.getUpdates() != writes.get()) {
+			fail("slot: getUpdates() = " + slot.getUpdates() + ", published " + writes.get());
+		}
+		System.out.printf("%-44s %14d %14d%n", "TargetSlot (readers=" + readers + ")", writes.get(), reads.get());
+	}
+
+	private static void fill(TargetData d, long f) {	// every field derived from the frame number, so a mix of two frames is detectable
+		final double v = f;
+		d.frame = f;
+		d.timestamp = f;
+		d.generation = f;
+		d.camera = (int)f;
+		d.pipeline = (int)f;
+		d.pos.x = v;
+		d.pos.y = -v;
+		d.pos.z = v * 2;
+		d.distance = v * 3;
+		d.ud = v * 4;
+		d.lr = v * 5;
+		d.latency = v * 6;
+		d.capture = v * 7;
+		d.confidence = v * 8;
+	}
+	private static boolean isWhole(TargetData d) {
+		final long f = d.frame;
+		final double v = f;
+		return d.timestamp == f && d.generation == f && d.camera == (int)f && d.pipeline == (int)f
+			&& d.pos.x == v && d.pos.y == -v && d.pos.z == v * 2 && d.distance == v * 3
+			&& d.ud == v * 4 && d.lr == v * 5 && d.latency == v * 6 && d.capture == v * 7 && d.confidence == v * 8;
+	}
+
+	private static void run(Thread writer, Thread[] readers, long millis) throws InterruptedException {
+		running = true;
+		for(Thread t : readers) {
+			t.start();
+		}
+		writer.start();
+		Thread.sleep(millis);
+		running = false;
+		writer.join();
+		for(Thread t : readers) {
+			t.join();
+		}
+	}
+	private static void fail(String msg) {
+		failures.incrementAndGet();
+		first.compareAndSet(null, msg);
+	}
+
+
+}
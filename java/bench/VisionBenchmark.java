@@ -0,0 +1,155 @@
+package frc.robot.vision.java.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.IntSupplier;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableInstance;
+
+import frc.robot.vision.java.PoseEstimator;
+import frc.robot.vision.java.VisionServer;
+import frc.robot.vision.java.VisionServer.CameraPreset;
+import frc.robot.vision.java.VisionServer.TargetData;
+import frc.robot.vision.java.VisionServer.VsPipeline;
+
+
+/** Microbenchmarks for the VisionServer client hot paths, run against the in-process default NT instance (no coprocessor needed).
+ * Reports ns/op and bytes allocated per op (the equivalent of JMH's -prof gc "gc.alloc.rate.norm").
+ * Run with: java -cp <robot classpath> frc.robot.vision.java.bench.VisionBenchmark [iterations] */
+public final class VisionBenchmark {
+
+	private static final com.sun.management.ThreadMXBean threads =
+		(com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+	private static volatile long sink;	// consumed results, keeps the JIT from eliminating the measured work
+
+	private static int iterations = 200_000;
+
+
+	public static void main(String[] args) {
+		if(args.length > 0) {
+			iterations = Integer.parseInt(args[0]);
+		}
+		final NetworkTableInstance inst = NetworkTableInstance.getDefault();
+		inst.startServer();
+		VisionServer.Get();
+
+		System.out.printf("%-44s %12s %12s%n", "benchmark", "ns/op", "B/op");
+		publishTarget(inst.getTable("Targets"), "bench", 1);
+		inst.getTable("Vision Server").getEntry("Active Target").setString("bench");
+
+		final TargetData buff = new TargetData();
+		bench("getTargetData()", () -> { TargetData d = VisionServer.getTargetData(); return (int)d.frame; });
+		bench("getTargetData(TargetData)", () -> (int)VisionServer.getTargetData(buff).frame);
+		bench("getDistance()", () -> (int)VisionServer.getDistance());
+		bench("latest(TargetData)", () -> VisionServer.latest(buff) ? 1 : 0);
+
+		for(int n : new int[]{ 1, 4, 16 }) {
+			populateCameras(n);
+			final String last = "camera" + (n - 1);
+			final CameraPreset preset = new CameraPreset(50, 40, 4500);
+			bench("getCamera(String)            cameras=" + n, () -> VisionServer.getCamera(last).getIdx());
+			bench("applyCameraPreset            cameras=" + n, () -> VisionServer.applyCameraPreset(preset) ? 1 : 0);
+		}
+		for(int n : new int[]{ 1, 8, 32 }) {
+			populatePipelines(n, 8);
+			final String last = "pipeline" + (n - 1);
+			bench("getPipeline(String)          pipelines=" + n, () -> VisionServer.getPipeline(last).getIdx());
+		}
+		for(int n : new int[]{ 8, 32, 128 }) {
+			populatePipelines(1, n);
+			final VsPipeline p = VisionServer.getPipeline("pipeline0");
+			bench("searchEntries(String)        entries=" + n, () -> p.searchEntries("threshold") == null ? 0 : 1);
+		}
+		for(int n : new int[]{ 1, 8, 32 }) {
+			for(int i = 0; i < n; i++) {
+				publishTarget(inst.getTable("Targets"), "target" + i, i);
+			}
+			final int id = VisionServer.getTargetRegistry().intern("target" + (n - 1));
+			final int[] visible = new int[32];
+			bench("TargetRegistry.read          targets=" + n, () -> VisionServer.getTargetRegistry().read(id, buff) ? 1 : 0);
+			bench("TargetRegistry.getVisible    targets=" + n, () -> VisionServer.getTargetRegistry().getVisible(visible, 1e9, 1e9));
+		}
+		for(int n : new int[]{ 2, 8, 32 }) {
+			final PoseEstimator pe = poseEstimator(n);
+			bench("PoseEstimator.solve          observations=" + n, () -> pe.solve(1.0, Double.NaN) ? 1 : 0);
+			bench("PoseEstimator.solve (prior)  observations=" + n, () -> pe.solve(1.0, 30.0) ? 1 : 0);
+		}
+
+		inst.stopServer();
+	}
+
+
+	private static void bench(String name, IntSupplier op) {
+		for(int i = 0; i < iterations / 4; i++) {	// warmup
+			sink += op.getAsInt();
+		}
+		final long tid = Thread.currentThread().getId();
+		final long a0 = threads.getThreadAllocatedBytes(tid), t0 = System.nanoTime();
+		for(int i = 0; i < iterations; i++) {
+			sink += op.getAsInt();
+		}
+		final long t1 = System.nanoTime(), a1 = threads.getThreadAllocatedBytes(tid);
+		System.out.printf("%-44s %12.1f %12.1f%n", name, (double)(t1 - t0) / iterations, (double)(a1 - a0) / iterations);
+	}
+
+	private static void publishTarget(NetworkTable targets, String name, int frame) {
+		final NetworkTable t = targets.getSubTable(name);
+		t.getEntry("x").setDouble(1.0);
+		t.getEntry("y").setDouble(0.5);
+		t.getEntry("z").setDouble(4.0);
+		t.getEntry("distance").setDouble(4.2);
+		t.getEntry("up-down").setDouble(7.0);
+		t.getEntry("left-right").setDouble(-3.0);
+		t.getEntry("data").setDoubleArray(new double[]{ frame, 1.0, 0.5, 4.0, 4.2, 7.0, -3.0, 20.0 });
+	}
+	private static PoseEstimator poseEstimator(int n) {	// n targets on a circle around a robot at (1, 1) facing 30 degrees, observed without noise
+		final PoseEstimator.FieldLayout layout = new PoseEstimator.FieldLayout(n);
+		final double rx = 1.0, ry = 1.0, th = Math.toRadians(30.0);
+		for(int i = 0; i < n; i++) {
+			final double a = 2.0 * Math.PI * i / n;
+			layout.add("target" + i, rx + 4.0 * Math.cos(a), ry + 4.0 * Math.sin(a), 2.0);
+		}
+		final PoseEstimator pe = new PoseEstimator(layout, n);
+		for(int i = 0; i < n; i++) {
+			final double dx = layout.getX(i) - rx, dy = layout.getY(i) - ry;
+			pe.addObservation(i, Math.cos(th) * dx + Math.sin(th) * dy, -Math.sin(th) * dx + Math.cos(th) * dy, 1.0);
+		}
+		return pe;
+	}
+	private static void populateCameras(int n) {
+		final NetworkTable cams = VisionServer.getCamerasTable();
+		for(String c : cams.getSubTables()) {
+			for(String k : cams.getSubTable(c).getKeys()) {
+				cams.getSubTable(c).getEntry(k).delete();
+			}
+		}
+		for(int i = 0; i < n; i++) {
+			final NetworkTable c = cams.getSubTable("camera" + i);
+			c.getEntry("Exposure").setDouble(40);
+			c.getEntry("Brightness").setDouble(50);
+			c.getEntry("WhiteBalance").setDouble(4500);
+		}
+		VisionServer.getRoot().getEntry("Cameras Available").setDouble(n);
+		VisionServer.updateCameras();
+	}
+	private static void populatePipelines(int n, int entries) {
+		final NetworkTable pipes = VisionServer.getPipelinesTable();
+		for(String p : pipes.getSubTables()) {
+			for(String k : pipes.getSubTable(p).getKeys()) {
+				pipes.getSubTable(p).getEntry(k).delete();
+			}
+		}
+		for(int i = 0; i < n; i++) {
+			final NetworkTable p = pipes.getSubTable("pipeline" + i);
+			for(int e = 0; e < entries - 2; e++) {
+				p.getEntry("Property " + e).setDouble(e);
+			}
+			p.getEntry("Show Debug").setBoolean(false);
+			p.getEntry("Show Threshold").setBoolean(false);
+		}
+		VisionServer.getRoot().getEntry("Pipelines Available").setDouble(n);
+		VisionServer.updatePipelines();
+	}
+
+
+}